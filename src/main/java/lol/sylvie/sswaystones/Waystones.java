@@ -7,14 +7,31 @@ package lol.sylvie.sswaystones;
 import java.util.HashMap;
 import java.util.UUID;
 import lol.sylvie.sswaystones.block.ModBlocks;
+import lol.sylvie.sswaystones.block.WaystoneBlockEntity;
+import lol.sylvie.sswaystones.block.WaystoneParticles;
+import lol.sylvie.sswaystones.block.WaystoneScheduler;
 import lol.sylvie.sswaystones.command.WaystonesCommand;
 import lol.sylvie.sswaystones.config.Configuration;
+import lol.sylvie.sswaystones.gui.ViewerSnapshot;
+import lol.sylvie.sswaystones.gui.ViewerUtil;
+import lol.sylvie.sswaystones.gui.compat.FloodgateCompat;
 import lol.sylvie.sswaystones.integration.SquaremapIntegration;
 import lol.sylvie.sswaystones.item.ModItems;
+import lol.sylvie.sswaystones.storage.AccessCache;
+import lol.sylvie.sswaystones.storage.WaystoneRecovery;
+import lol.sylvie.sswaystones.storage.WaystoneValidator;
+import lol.sylvie.sswaystones.storage.WaystoneVerifier;
+import lol.sylvie.sswaystones.teleport.LandingCache;
+import lol.sylvie.sswaystones.teleport.LeashTracker;
+import lol.sylvie.sswaystones.teleport.TeleportScheduler;
 import lol.sylvie.sswaystones.worldgen.VillageInjector;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerBlockEntityEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerChunkEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.fabricmc.fabric.api.resource.v1.ResourceLoader;
 import net.fabricmc.fabric.api.resource.v1.pack.PackActivationType;
 import net.fabricmc.loader.api.FabricLoader;
@@ -41,10 +58,49 @@ public class Waystones implements ModInitializer {
         ModBlocks.initialize();
         ModItems.initialize();
 
+        ServerBlockEntityEvents.BLOCK_ENTITY_LOAD.register(WaystoneScheduler::onLoad);
+        ServerBlockEntityEvents.BLOCK_ENTITY_UNLOAD.register(WaystoneScheduler::onUnload);
+        ServerTickEvents.END_WORLD_TICK.register(WaystoneScheduler::onWorldTick);
+        ServerTickEvents.END_SERVER_TICK.register(WaystoneParticles::onServerTick);
+        ServerChunkEvents.CHUNK_LOAD.register((world, chunk, generated) -> WaystoneValidator.onChunkLoad(world, chunk));
+        ServerTickEvents.END_SERVER_TICK.register(WaystoneValidator::onServerTick);
+        ServerTickEvents.END_SERVER_TICK.register(WaystoneVerifier::onServerTick);
+        ServerTickEvents.END_SERVER_TICK.register(WaystoneRecovery::onServerTick);
+        ServerTickEvents.END_SERVER_TICK.register(AccessCache::onServerTick);
+        ServerTickEvents.END_SERVER_TICK.register(ViewerUtil::onServerTick);
+        ServerTickEvents.END_SERVER_TICK.register(ViewerSnapshot::onServerTick);
+        ServerTickEvents.END_SERVER_TICK.register(TeleportScheduler::onServerTick);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            WaystoneScheduler.clear();
+            WaystoneParticles.clear();
+            WaystoneBlockEntity.checkLeaks();
+            AccessCache.clear();
+            ViewerUtil.clear();
+            ViewerSnapshot.clear();
+            TeleportScheduler.clear();
+            LandingCache.clear();
+            LeashTracker.clear();
+            WaystoneValidator.clear();
+            WaystoneVerifier.clear();
+            WaystoneRecovery.clear();
+        });
+        ServerPlayConnectionEvents.JOIN
+                .register((handler, sender, server) -> ViewerSnapshot.prepare(handler.getPlayer()));
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+            AccessCache.forget(handler.getPlayer().getUUID());
+            ViewerUtil.forget(handler.getPlayer().getUUID());
+            ViewerSnapshot.forget(handler.getPlayer().getUUID());
+        });
+
+        if (FabricLoader.getInstance().isModLoaded(FloodgateCompat.MOD_ID))
+            FloodgateCompat.initialize();
+
         CommandRegistrationCallback.EVENT
                 .register((dispatcher, registryAccess, environment) -> WaystonesCommand.register(dispatcher));
 
         ServerLifecycleEvents.SERVER_STARTING.register(VillageInjector::inject);
+        ServerLifecycleEvents.SERVER_STARTED.register(WaystoneRecovery::onServerStarted);
+        ServerLifecycleEvents.SERVER_STARTED.register(WaystoneVerifier::start);
         ResourceLoader.registerBuiltinPack(Waystones.id("remove_waystone_recipes"),
                 FabricLoader.getInstance().getModContainer(MOD_ID).orElseThrow(), PackActivationType.NORMAL);
 
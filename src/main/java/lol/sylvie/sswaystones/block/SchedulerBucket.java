@@ -0,0 +1,87 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.block;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * One of a {@link WaystoneScheduler}'s buckets. Entries remember their index,
+ * so removing one moves the last entry into the gap instead of shifting the
+ * rest, and a cursor marks how far the current round has got.
+ */
+class SchedulerBucket<T extends SchedulerBucket.Entry> {
+    interface Entry {
+        int getSchedulerSlot(); // -1 while not in a bucket
+
+        void setSchedulerSlot(int slot);
+    }
+
+    private final List<T> entries = new ArrayList<>();
+    private int cursor = 0;
+
+    void add(T entry) {
+        if (entry.getSchedulerSlot() != -1)
+            return;
+
+        entry.setSchedulerSlot(entries.size());
+        entries.add(entry);
+    }
+
+    void remove(T entry) {
+        int position = entry.getSchedulerSlot();
+        if (position == -1)
+            return;
+
+        // Keep everything already visited this round in front of the cursor
+        if (position < cursor) {
+            move(cursor - 1, position);
+            position = --cursor;
+        }
+
+        move(entries.size() - 1, position);
+        entries.removeLast();
+        entry.setSchedulerSlot(-1);
+    }
+
+    private void move(int from, int to) {
+        if (from == to)
+            return;
+
+        T entry = entries.get(from);
+        entries.set(to, entry);
+        entry.setSchedulerSlot(to);
+    }
+
+    // The next entry this round, null once every entry had its turn
+    @Nullable T next() {
+        return cursor < entries.size() ? entries.get(cursor++) : null;
+    }
+
+    boolean isFinished() {
+        return cursor >= entries.size();
+    }
+
+    void restart() {
+        cursor = 0;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void clear() {
+        entries.forEach(entry -> entry.setSchedulerSlot(-1));
+        entries.clear();
+        cursor = 0;
+    }
+
+    // For tests
+    List<T> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+}
@@ -27,8 +27,6 @@ import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.BaseEntityBlock;
 import net.minecraft.world.level.block.WallBlock;
 import net.minecraft.world.level.block.entity.BlockEntity;
-import net.minecraft.world.level.block.entity.BlockEntityTicker;
-import net.minecraft.world.level.block.entity.BlockEntityType;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.block.state.properties.WallSide;
 import net.minecraft.world.phys.BlockHitResult;
@@ -138,7 +136,7 @@ public class WaystoneBlock extends BaseEntityBlock implements PolymerBlock {
             }
 
             if (!playerData.discoveredWaystones.contains(waystoneHash) || newlyCreated) {
-                playerData.discoveredWaystones.add(waystoneHash);
+                storage.discoverWaystone(serverPlayer, record);
                 player.displayClientMessage(Component
                         .translatable("message.sswaystones.discovered",
                                 record.getWaystoneText().copy().withStyle(ChatFormatting.BOLD, ChatFormatting.GOLD))
@@ -157,14 +155,4 @@ public class WaystoneBlock extends BaseEntityBlock implements PolymerBlock {
     public BlockEntity newBlockEntity(BlockPos pos, BlockState state) {
         return new WaystoneBlockEntity(pos, state);
     }
-
-    @Override
-    public <T extends BlockEntity> BlockEntityTicker<T> getTicker(Level world, BlockState state,
-            BlockEntityType<T> type) {
-        if (type.equals(ModBlocks.WAYSTONE_BLOCK_ENTITY)) {
-            return (tickerWorld, pos, tickerState, blockEntity) -> WaystoneBlockEntity.tick(tickerWorld,
-                    (WaystoneBlockEntity) blockEntity);
-        }
-        return null;
-    }
 }
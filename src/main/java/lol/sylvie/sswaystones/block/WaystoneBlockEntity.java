@@ -8,94 +8,234 @@ import eu.pb4.polymer.virtualentity.api.ElementHolder;
 import eu.pb4.polymer.virtualentity.api.attachment.ChunkAttachment;
 import eu.pb4.polymer.virtualentity.api.elements.ItemDisplayElement;
 import eu.pb4.polymer.virtualentity.api.elements.TextDisplayElement;
-import java.awt.*;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.UUID;
 import lol.sylvie.sswaystones.Waystones;
+import lol.sylvie.sswaystones.storage.AccessCache;
 import lol.sylvie.sswaystones.storage.WaystoneRecord;
 import lol.sylvie.sswaystones.storage.WaystoneStorage;
 import lol.sylvie.sswaystones.util.HashUtil;
 import net.minecraft.ChatFormatting;
 import net.minecraft.core.BlockPos;
+import net.minecraft.core.UUIDUtil;
 import net.minecraft.core.component.DataComponents;
-import net.minecraft.core.particles.DustParticleOptions;
-import net.minecraft.core.particles.ParticleOptions;
-import net.minecraft.core.particles.ParticleTypes;
+import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.network.ServerGamePacketListenerImpl;
 import net.minecraft.world.entity.Display;
+import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.item.Items;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.storage.ValueInput;
+import net.minecraft.world.level.storage.ValueOutput;
 import net.minecraft.world.phys.Vec3;
 import net.minecraft.world.scores.PlayerTeam;
 import org.jetbrains.annotations.Nullable;
 import org.joml.Vector3f;
 
-public class WaystoneBlockEntity extends BlockEntity {
-    private static final Random RANDOM = new Random();
+public class WaystoneBlockEntity extends BlockEntity implements SchedulerBucket.Entry {
+    private static int liveAttachments = 0; // Eye and name attachments, back to zero once everything unloads
+
+    // The elements are created once and changed in place, so viewers never get
+    // remove/spawn packets just because the waystone got its record
     private final ElementHolder holder = new ElementHolder();
-    private ChunkAttachment attachment;
+    private @Nullable ChunkAttachment attachment;
+
+    // The name lives in its own holder, which is only sent to players that may
+    // access the waystone
+    private final ElementHolder nameHolder = new ElementHolder() {
+        @Override
+        public boolean startWatching(ServerGamePacketListenerImpl player) {
+            return canSeeName(player.getPlayer()) && super.startWatching(player);
+        }
+    };
+    private @Nullable ChunkAttachment nameAttachment;
+    private int nameWatchersRevision = -1;
 
-    public TextDisplayElement nameDisplay = null;
-    public ItemDisplayElement eyeDisplay = null;
+    public final TextDisplayElement nameDisplay = new TextDisplayElement();
+    public final ItemDisplayElement eyeDisplay = new ItemDisplayElement();
 
     public WaystoneRecord waystone;
+    private int schedulerSlot = -1; // Position in the scheduler's bucket, -1 while not scheduled
+
+    // A copy of the record's key fields, saved with the block entity so it can
+    // find its record without hashing and bring it back if the record is lost
+    private @Nullable Binding binding;
+
+    // What the name display currently shows, so the text is only rebuilt when
+    // the record or its team color actually changed
+    private int nameVersion = -1;
+    private @Nullable ChatFormatting nameColor = null;
+
+    // Same for the eye, which only changes with the record's icon or the config
+    private int iconVersion = -1;
+    private boolean iconPhysical = false;
 
     public WaystoneBlockEntity(BlockPos pos, BlockState state) {
         super(ModBlocks.WAYSTONE_BLOCK_ENTITY, pos, state);
+
+        // Eye display
+        ItemStack glowingEnderPearl = Items.ENDER_PEARL.getDefaultInstance();
+        glowingEnderPearl.set(DataComponents.ENCHANTMENT_GLINT_OVERRIDE, true);
+
+        eyeDisplay.setItem(glowingEnderPearl);
+        eyeDisplay.setOffset(new Vec3(0, 1.125, 0));
+        eyeDisplay.setScale(new Vector3f(0.75f, 0.75f, 0.75f));
+        eyeDisplay.setInterpolationDuration(1);
+        eyeDisplay.setTeleportDuration(WaystoneScheduler.UPDATE_INTERVAL);
+        holder.addElement(eyeDisplay);
+
+        // Waystone name display, only attached once the waystone has a record
+        nameDisplay.setOffset(new Vec3(0, 1.55, 0));
+        nameDisplay.setTextAlignment(Display.TextDisplay.Align.CENTER);
+        nameDisplay.setBillboardMode(Display.BillboardConstraints.CENTER);
+        nameDisplay.setTeleportDuration(WaystoneScheduler.UPDATE_INTERVAL);
+        nameHolder.addElement(nameDisplay);
+    }
+
+    @Override
+    public int getSchedulerSlot() {
+        return schedulerSlot;
+    }
+
+    @Override
+    public void setSchedulerSlot(int slot) {
+        this.schedulerSlot = slot;
     }
 
     public static void tick(Level world, WaystoneBlockEntity waystoneEntity) {
         WaystoneRecord record = waystoneEntity.getThisWaystone(world);
         boolean waystoneOwned = record != null;
-        boolean shouldCreateName = record != null && waystoneEntity.nameDisplay == null;
 
-        // Create the display itself
-        if (waystoneEntity.eyeDisplay == null || shouldCreateName) {
-            waystoneEntity.createHologramDisplay(world);
-        }
+        if (waystoneEntity.attachment == null)
+            waystoneEntity.attach((ServerLevel) world);
+
+        waystoneEntity.setNameShown((ServerLevel) world, waystoneOwned);
 
         // Eye rotation
-        // We use game time instead of just adding yaw because the display is recreated
-        // when a waystone is discovered
-        // and it would reset jarringly if it wasn't separate from the display objects
+        // We use game time instead of just adding yaw because the scheduler only
+        // updates us every few ticks, the client interpolates the rest
         waystoneEntity.eyeDisplay.setYaw(((world.getGameTime() + waystoneEntity.hashCode()) % 90) * 4);
 
-        ChatFormatting color = ChatFormatting.RESET;
         if (waystoneOwned) {
-            // Team coloring
-            String teamName = record.getAccessSettings().getTeam();
-            if (!teamName.isEmpty()) {
-                PlayerTeam team = world.getScoreboard().getPlayerTeam(teamName);
-                if (team != null) {
-                    color = team.getColor();
-                }
-            }
-
-            // TODO: Maybe cache this value?
-            waystoneEntity.eyeDisplay.setItem(getDisplayIcon(world.getServer(), record));
+            ChatFormatting color = getTeamColor(world, record);
 
-            if (waystoneEntity.nameDisplay == null)
-                return;
+            waystoneEntity.updateEyeIcon(world.getServer(), record);
 
-            waystoneEntity.nameDisplay.setText(record.getWaystoneText().copy().withStyle(color));
+            waystoneEntity.updateNameText(record, color);
+            waystoneEntity.updateNameWatchers((ServerLevel) world);
 
             // Bob up and down
             double y = (Math.sin((double) System.currentTimeMillis() / 1000) / 32) + 1.55d;
             waystoneEntity.nameDisplay.setOffset(new Vec3(0, y, 0));
         }
+    }
+
+    public ChatFormatting getTeamColor() {
+        return waystone != null && nameColor != null ? nameColor : ChatFormatting.RESET;
+    }
+
+    private static ChatFormatting getTeamColor(Level world, WaystoneRecord record) {
+        String teamName = record.getAccessSettings().getTeam();
+        if (teamName.isEmpty())
+            return ChatFormatting.RESET;
+
+        PlayerTeam team = world.getScoreboard().getPlayerTeam(teamName);
+        return team == null ? ChatFormatting.RESET : team.getColor();
+    }
+
+    // Everything needed to restore the record as it was, access included
+    private record Binding(String hash, UUID owner, String ownerName, String name, boolean global, boolean server,
+            String team, Item icon) {
+        private static Binding of(WaystoneRecord record) {
+            WaystoneRecord.AccessSettings accessSettings = record.getAccessSettings();
+            return new Binding(record.getHash(), record.getOwnerUUID(), record.getOwnerName(),
+                    record.getWaystoneName(), accessSettings.isGlobal(), accessSettings.isServerOwned(),
+                    accessSettings.getTeam(), record.getIcon());
+        }
+
+        private WaystoneRecord.AccessSettings accessSettings() {
+            return new WaystoneRecord.AccessSettings(global, server, team);
+        }
+    }
+
+    @Override
+    protected void saveAdditional(ValueOutput output) {
+        super.saveAdditional(output);
+        if (binding == null)
+            return;
+
+        output.putString("waystone", binding.hash());
+        output.store("owner", UUIDUtil.CODEC, binding.owner());
+        output.putString("owner_name", binding.ownerName());
+        output.putString("name", binding.name());
+        output.putBoolean("global", binding.global());
+        output.putBoolean("server", binding.server());
+        output.putString("team", binding.team());
+        output.store("icon", BuiltInRegistries.ITEM.byNameCodec(), binding.icon());
+    }
+
+    @Override
+    protected void loadAdditional(ValueInput input) {
+        super.loadAdditional(input);
+        // Bindings saved before access was part of them restore as private
+        binding = input.getString("waystone")
+                .map(hash -> new Binding(hash, input.read("owner", UUIDUtil.CODEC).orElse(new UUID(0, 0)),
+                        input.getStringOr("owner_name", ""), input.getStringOr("name", ""),
+                        input.getBooleanOr("global", false), input.getBooleanOr("server", false),
+                        input.getStringOr("team", ""),
+                        input.read("icon", BuiltInRegistries.ITEM.byNameCodec()).orElse(Items.PLAYER_HEAD)))
+                .orElse(null);
+    }
+
+    private void updateBinding(WaystoneRecord record) {
+        Binding current = Binding.of(record);
+        if (!current.equals(binding)) {
+            binding = current;
+            setChanged();
+        }
+    }
+
+    private void updateEyeIcon(MinecraftServer server, WaystoneRecord record) {
+        int version = record.getVersion();
+        boolean physical = Waystones.configuration.getInstance().physicalIconDisplay;
+        if (version == iconVersion && physical == iconPhysical)
+            return;
 
-        // Particles
-        if (RANDOM.nextInt(0, waystoneOwned ? 20 : 10) == 0 && world instanceof ServerLevel serverWorld) {
-            Vec3 pos = waystoneEntity.getBlockPos().getBottomCenter().add(0, 1, 0);
-            Integer colorValue = color.getColor();
+        iconVersion = version;
+        iconPhysical = physical;
+        eyeDisplay.setItem(getDisplayIcon(server, record));
+    }
+
+    private void updateNameText(WaystoneRecord record, ChatFormatting color) {
+        int version = record.getVersion();
+        if (version == nameVersion && color == nameColor)
+            return;
 
-            boolean noTeam = color == ChatFormatting.RESET || colorValue == null;
-            ParticleOptions options = noTeam ? ParticleTypes.PORTAL : new DustParticleOptions(colorValue, 1f);
+        updateBinding(record);
+        nameVersion = version;
+        nameColor = color;
+        nameDisplay.setText(record.getWaystoneText().copy().withStyle(color));
+    }
 
-            serverWorld.sendParticles(options, pos.x(), pos.y(), pos.z(), 8, 0.1d, 0.1d, 0.1d, 0.1d);
+    /**
+     * Pushes changes made to a record (e.g. a rename) to its hologram right away
+     * instead of waiting for the next tick.
+     */
+    public static void refreshDisplay(MinecraftServer server, WaystoneRecord record) {
+        ServerLevel world = record.getWorld(server);
+        if (world == null || !world.isLoaded(record.getPos()))
+            return;
+
+        if (world.getBlockEntity(record.getPos()) instanceof WaystoneBlockEntity waystoneEntity
+                && waystoneEntity.nameAttachment != null) {
+            waystoneEntity.updateNameText(record, getTeamColor(world, record));
         }
     }
 
@@ -107,7 +247,25 @@ public class WaystoneBlockEntity extends BlockEntity {
         // Grab waystone if it isn't there
         if (this.waystone == null) {
             WaystoneStorage storage = WaystoneStorage.getServerState(world.getServer());
-            this.waystone = storage.getWaystone(HashUtil.getHash(worldPosition, world.dimension()));
+            if (binding != null) {
+                // Saved ids can be wrong if the block entity was copied, e.g. by a structure
+                WaystoneRecord record = storage.getWaystone(binding.hash());
+                if (record != null && record.getPos().equals(worldPosition)
+                        && record.getWorldKey() == world.dimension()) {
+                    this.waystone = record;
+                } else if (record == null
+                        && binding.hash().equals(HashUtil.getHash(worldPosition, world.dimension()))) {
+                    // The record was lost but the waystone is still here, bring it back
+                    Waystones.LOGGER.info("Restoring lost waystone {} at {}", binding.name(), worldPosition);
+                    this.waystone = storage.restoreWaystone(world.dimension(), worldPosition, binding.owner(),
+                            binding.ownerName(), binding.name(), binding.accessSettings(), binding.icon());
+                } else {
+                    binding = null;
+                }
+            }
+
+            if (this.waystone == null)
+                this.waystone = storage.getWaystone(HashUtil.getHash(worldPosition, world.dimension()));
         }
 
         // This can still be null!
@@ -129,44 +287,79 @@ public class WaystoneBlockEntity extends BlockEntity {
             WaystoneBlock.onRemoved(level, pos);
     }
 
-    public void createHologramDisplay(Level world) {
-        this.removeDisplay();
+    private void setNameShown(ServerLevel world, boolean shown) {
+        if (shown == (nameAttachment != null))
+            return;
 
-        WaystoneRecord record = getThisWaystone(world);
-        boolean exists = record != null;
+        if (shown) {
+            nameVersion = -1;
+            nameWatchersRevision = AccessCache.getRevision();
+            nameAttachment = (ChunkAttachment) ChunkAttachment.ofTicking(nameHolder, world, worldPosition);
+            liveAttachments++;
+        } else {
+            nameAttachment.destroy();
+            nameAttachment = null;
+            liveAttachments--;
+        }
+    }
 
-        // Eye display
-        ItemStack glowingEnderPearl = Items.ENDER_PEARL.getDefaultInstance();
-        glowingEnderPearl.set(DataComponents.ENCHANTMENT_GLINT_OVERRIDE, true);
+    private boolean canSeeName(ServerPlayer player) {
+        return waystone != null && AccessCache.canAccess(player, waystone);
+    }
 
-        ItemStack stack = exists ? getDisplayIcon(world.getServer(), record) : glowingEnderPearl;
-        eyeDisplay = new ItemDisplayElement(stack);
-        eyeDisplay.setOffset(new Vec3(0, 1.125, 0));
-        eyeDisplay.setScale(new Vector3f(0.75f, 0.75f, 0.75f));
-        eyeDisplay.setInterpolationDuration(1);
+    // Someone's access changed, so re-check who is allowed to see the name
+    private void updateNameWatchers(ServerLevel world) {
+        int revision = AccessCache.getRevision();
+        if (nameAttachment == null || revision == nameWatchersRevision)
+            return;
+        nameWatchersRevision = revision;
 
-        holder.addElement(eyeDisplay);
+        for (ServerGamePacketListenerImpl watcher : new ArrayList<>(nameHolder.getWatchingPlayers())) {
+            if (!canSeeName(watcher.getPlayer()))
+                nameHolder.stopWatching(watcher);
+        }
 
-        // Waystone name display
-        if (exists) {
-            nameDisplay = new TextDisplayElement();
+        // Returns false for players who are already watching or still can't see it
+        for (ServerPlayer player : world.getChunkSource().chunkMap.getPlayers(new ChunkPos(worldPosition), false)) {
+            nameHolder.startWatching(player.connection);
+        }
+    }
 
-            nameDisplay.setText(record.getWaystoneText());
-            nameDisplay.setTextAlignment(Display.TextDisplay.Align.CENTER);
-            nameDisplay.setBillboardMode(Display.BillboardConstraints.CENTER);
+    // Attached lazily by the scheduler after the chunk loads, destroyed when it
+    // unloads or the waystone is removed
+    private void attach(ServerLevel world) {
+        attachment = (ChunkAttachment) ChunkAttachment.ofTicking(holder, world, worldPosition);
+        liveAttachments++;
+    }
 
-            holder.addElement(nameDisplay);
+    public void removeDisplay() {
+        if (nameAttachment != null) {
+            nameAttachment.destroy();
+            nameAttachment = null;
+            liveAttachments--;
         }
 
-        attachment = (ChunkAttachment) ChunkAttachment.ofTicking(holder, (ServerLevel) world, worldPosition);
+        if (attachment == null)
+            return;
+
+        attachment.destroy();
+        attachment = null;
+        liveAttachments--;
     }
 
-    public void removeDisplay() {
-        if (eyeDisplay != null)
-            holder.removeElement(eyeDisplay);
-        if (nameDisplay != null)
-            holder.removeElement(nameDisplay);
-        if (attachment != null)
-            attachment.destroy();
+    public boolean hasDisplay() {
+        return attachment != null;
+    }
+
+    public static int getLiveAttachments() {
+        return liveAttachments;
+    }
+
+    public static void checkLeaks() {
+        if (liveAttachments != 0) {
+            Waystones.LOGGER.warn("{} waystone hologram(s) were not cleaned up before the server stopped!",
+                    liveAttachments);
+            liveAttachments = 0;
+        }
     }
 }
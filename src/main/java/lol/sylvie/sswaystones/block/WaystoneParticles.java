@@ -0,0 +1,118 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.block;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import lol.sylvie.sswaystones.Waystones;
+import lol.sylvie.sswaystones.config.Configuration;
+import net.minecraft.ChatFormatting;
+import net.minecraft.core.particles.DustParticleOptions;
+import net.minecraft.core.particles.ParticleOptions;
+import net.minecraft.core.particles.ParticleTypes;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.phys.Vec3;
+
+/**
+ * Ambient waystone particles. The number of particles sent to clients each tick
+ * is capped server-wide and split evenly between the waystones that want to
+ * emit and have a viewer in range, in every dimension, and viewers further away
+ * receive fewer (or no) particles.
+ */
+public class WaystoneParticles {
+    private static final int NEAR_PARTICLES = 8;
+    private static final int FAR_PARTICLES = 2;
+    private static final int MAX_RADIUS = 32;
+
+    // Collected while the levels tick, spawned once all of them have
+    private static final List<WaystoneBlockEntity> EMITTERS = new ArrayList<>();
+
+    // Rolled every time the scheduler updates a waystone, which covers several
+    // ticks, so a 1 in 20 (or 10) chance per tick becomes UPDATE_INTERVAL in 20
+    public static boolean shouldEmit(WaystoneBlockEntity waystoneEntity) {
+        int chance = waystoneEntity.waystone != null ? 20 : 10;
+        return ThreadLocalRandom.current().nextInt(chance) < WaystoneScheduler.UPDATE_INTERVAL;
+    }
+
+    public static void queue(WaystoneBlockEntity waystoneEntity) {
+        EMITTERS.add(waystoneEntity);
+    }
+
+    public static void onServerTick(MinecraftServer server) {
+        int remainingBudget = Waystones.configuration.getInstance().particleBudget;
+        if (EMITTERS.isEmpty() || remainingBudget <= 0) {
+            EMITTERS.clear();
+            return;
+        }
+
+        // Waystones nobody can see would only take budget away from the ones that are seen
+        int radius = Math.min(Waystones.configuration.getInstance().particleRadius, MAX_RADIUS);
+        double radiusSquared = (double) radius * radius;
+        EMITTERS.removeIf(waystoneEntity -> !hasViewer(waystoneEntity, radiusSquared));
+        if (EMITTERS.isEmpty())
+            return;
+
+        int allowance = Math.max(remainingBudget / EMITTERS.size(), FAR_PARTICLES);
+
+        // Rotate the starting point so the same waystones don't always get the budget
+        int start = server.getTickCount() % EMITTERS.size();
+        for (int i = 0; i < EMITTERS.size() && remainingBudget > 0; i++) {
+            WaystoneBlockEntity waystoneEntity = EMITTERS.get((start + i) % EMITTERS.size());
+            ServerLevel world = (ServerLevel) waystoneEntity.getLevel();
+            remainingBudget -= spawn(world, waystoneEntity, radiusSquared, Math.min(allowance, remainingBudget));
+        }
+        EMITTERS.clear();
+    }
+
+    public static void clear() {
+        EMITTERS.clear();
+    }
+
+    private static boolean hasViewer(WaystoneBlockEntity waystoneEntity, double radiusSquared) {
+        if (waystoneEntity.isRemoved() || !(waystoneEntity.getLevel() instanceof ServerLevel world))
+            return false;
+
+        Vec3 pos = waystoneEntity.getBlockPos().getBottomCenter().add(0, 1, 0);
+        for (ServerPlayer player : world.players()) {
+            if (player.distanceToSqr(pos) <= radiusSquared)
+                return true;
+        }
+        return false;
+    }
+
+    private static int spawn(ServerLevel world, WaystoneBlockEntity waystoneEntity, double radiusSquared,
+            int allowance) {
+        Configuration.Instance config = Waystones.configuration.getInstance();
+        double lodSquared = (double) config.particleLodDistance * config.particleLodDistance;
+
+        Vec3 pos = waystoneEntity.getBlockPos().getBottomCenter().add(0, 1, 0);
+        ChatFormatting color = waystoneEntity.getTeamColor();
+        Integer colorValue = color.getColor();
+
+        boolean noTeam = color == ChatFormatting.RESET || colorValue == null;
+        ParticleOptions options = noTeam ? ParticleTypes.PORTAL : new DustParticleOptions(colorValue, 1f);
+
+        int spent = 0;
+        for (ServerPlayer player : world.players()) {
+            double distance = player.distanceToSqr(pos);
+            if (distance > radiusSquared)
+                continue;
+
+            // Whatever is left of the allowance, so nearby players never get less than far ones
+            int count = Math.min(distance > lodSquared ? FAR_PARTICLES : NEAR_PARTICLES, allowance - spent);
+            if (count <= 0)
+                continue;
+
+            world.sendParticles(player, options, false, false, pos.x(), pos.y(), pos.z(), count, 0.1d, 0.1d, 0.1d,
+                    0.1d);
+            spent += count;
+        }
+
+        return spent;
+    }
+}
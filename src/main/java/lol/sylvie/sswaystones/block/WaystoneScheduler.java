@@ -0,0 +1,139 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.block;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lol.sylvie.sswaystones.Waystones;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Owns every loaded waystone block entity of a level and updates their
+ * holograms in time slices, instead of each block entity ticking on its own.
+ * Waystones are spread over {@link #UPDATE_INTERVAL} buckets by position, one
+ * bucket is worked on per tick, and no more than the configured budget is
+ * serviced in a single tick.
+ */
+public class WaystoneScheduler {
+    public static final int UPDATE_INTERVAL = 4; // Each waystone is updated every this many ticks
+    private static final Map<ResourceKey<Level>, WaystoneScheduler> SCHEDULERS = new HashMap<>();
+
+    private final ServerLevel world;
+    private final List<SchedulerBucket<WaystoneBlockEntity>> buckets = new ArrayList<>();
+    private int bucketIndex = 0;
+
+    private int lastServiced = 0;
+    private long lastTickNanos = 0;
+
+    private WaystoneScheduler(ServerLevel world) {
+        this.world = world;
+        for (int i = 0; i < UPDATE_INTERVAL; i++) {
+            buckets.add(new SchedulerBucket<>());
+        }
+    }
+
+    public static WaystoneScheduler get(ServerLevel world) {
+        return SCHEDULERS.computeIfAbsent(world.dimension(), key -> new WaystoneScheduler(world));
+    }
+
+    // Doesn't create a scheduler for levels that never had a waystone loaded
+    public static @Nullable WaystoneScheduler find(ServerLevel world) {
+        return SCHEDULERS.get(world.dimension());
+    }
+
+    // Events
+    public static void onLoad(BlockEntity blockEntity, ServerLevel world) {
+        if (blockEntity instanceof WaystoneBlockEntity waystoneEntity)
+            get(world).add(waystoneEntity);
+    }
+
+    public static void onUnload(BlockEntity blockEntity, ServerLevel world) {
+        if (blockEntity instanceof WaystoneBlockEntity waystoneEntity) {
+            get(world).remove(waystoneEntity);
+            waystoneEntity.removeDisplay();
+        }
+    }
+
+    public static void onWorldTick(ServerLevel world) {
+        WaystoneScheduler scheduler = SCHEDULERS.get(world.dimension());
+        if (scheduler != null)
+            scheduler.tick();
+    }
+
+    public static void clear() {
+        for (WaystoneScheduler scheduler : SCHEDULERS.values()) {
+            for (SchedulerBucket<WaystoneBlockEntity> bucket : scheduler.buckets) {
+                bucket.clear();
+            }
+        }
+        SCHEDULERS.clear();
+    }
+
+    private static int getBucket(WaystoneBlockEntity waystoneEntity) {
+        return Math.floorMod(Long.hashCode(waystoneEntity.getBlockPos().asLong()), UPDATE_INTERVAL);
+    }
+
+    public void add(WaystoneBlockEntity waystoneEntity) {
+        buckets.get(getBucket(waystoneEntity)).add(waystoneEntity);
+    }
+
+    public void remove(WaystoneBlockEntity waystoneEntity) {
+        buckets.get(getBucket(waystoneEntity)).remove(waystoneEntity);
+    }
+
+    public void tick() {
+        long start = System.nanoTime();
+        int budget = Math.max(Waystones.configuration.getInstance().hologramUpdatesPerTick, 1);
+        int serviced = 0;
+
+        SchedulerBucket<WaystoneBlockEntity> bucket = buckets.get(bucketIndex);
+        WaystoneBlockEntity waystoneEntity;
+        while (serviced < budget && (waystoneEntity = bucket.next()) != null) {
+            if (waystoneEntity.isRemoved()) {
+                // Missed an unload, don't keep its hologram around
+                Waystones.LOGGER.warn("Removed waystone at {} was still scheduled", waystoneEntity.getBlockPos());
+                remove(waystoneEntity);
+                waystoneEntity.removeDisplay();
+                continue;
+            }
+
+            WaystoneBlockEntity.tick(world, waystoneEntity);
+            if (WaystoneParticles.shouldEmit(waystoneEntity))
+                WaystoneParticles.queue(waystoneEntity);
+            serviced++;
+        }
+
+        // Move on once the bucket is finished, otherwise continue where we left off
+        if (bucket.isFinished()) {
+            bucket.restart();
+            bucketIndex = (bucketIndex + 1) % UPDATE_INTERVAL;
+        }
+
+        lastServiced = serviced;
+        lastTickNanos = System.nanoTime() - start;
+    }
+
+    public int getActiveCount() {
+        int count = 0;
+        for (SchedulerBucket<WaystoneBlockEntity> bucket : buckets) {
+            count += bucket.size();
+        }
+        return count;
+    }
+
+    public int getLastServiced() {
+        return lastServiced;
+    }
+
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+}
@@ -15,21 +15,32 @@ import java.lang.reflect.Field;
 import java.util.*;
 import lol.sylvie.sswaystones.Waystones;
 import lol.sylvie.sswaystones.block.ModBlocks;
+import lol.sylvie.sswaystones.block.WaystoneBlockEntity;
+import lol.sylvie.sswaystones.block.WaystoneScheduler;
 import lol.sylvie.sswaystones.config.Configuration;
 import lol.sylvie.sswaystones.config.Description;
+import lol.sylvie.sswaystones.config.XpCostTable;
+import lol.sylvie.sswaystones.gui.GuiMetrics;
 import lol.sylvie.sswaystones.gui.ViewerUtil;
+import lol.sylvie.sswaystones.storage.AccessCache;
 import lol.sylvie.sswaystones.storage.WaystoneRecord;
+import lol.sylvie.sswaystones.storage.WaystoneRecovery;
 import lol.sylvie.sswaystones.storage.WaystoneStorage;
+import lol.sylvie.sswaystones.storage.WaystoneVerifier;
+import lol.sylvie.sswaystones.teleport.TeleportScheduler;
 import lol.sylvie.sswaystones.util.NameGenerator;
 import me.lucko.fabric.api.permissions.v0.Permissions;
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.ChatFormatting;
 import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.arguments.EntityArgument;
 import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.server.permissions.PermissionLevel;
+import net.minecraft.world.level.Level;
 
 public class WaystonesCommand {
 
@@ -59,17 +70,8 @@ public class WaystonesCommand {
                     return 1;
                 })).then(literal("remove").then(argument("hash", StringArgumentType.word()).executes(context -> {
                     WaystoneStorage storage = WaystoneStorage.getServerState(context.getSource().getServer());
-                    String search = StringArgumentType.getString(context, "hash").toLowerCase(Locale.ROOT);
-                    Optional<Map.Entry<String, WaystoneRecord>> entry = storage.waystones.entrySet().stream()
-                            .filter(w -> w.getKey().toLowerCase(Locale.ROOT).startsWith(search)).findFirst();
-                    if (entry.isEmpty()) {
-                        throw new CommandSyntaxException(
-                                CommandSyntaxException.BUILT_IN_EXCEPTIONS.dispatcherUnknownArgument(),
-                                Component.translatable("command.sswaystones.waystone_not_found"));
-                    }
-
                     MinecraftServer server = context.getSource().getServer();
-                    WaystoneRecord record = entry.get().getValue();
+                    WaystoneRecord record = findWaystone(storage, StringArgumentType.getString(context, "hash"));
                     storage.destroyWaystone(record);
 
                     // Remove it in the world
@@ -82,12 +84,28 @@ public class WaystonesCommand {
                             () -> Component.translatable("command.sswaystones.waystone_removed_successfully"), true);
 
                     return 1;
-                })))
+                }))).then(literal("teleport").then(argument("targets", EntityArgument.players())
+                        .then(argument("hash", StringArgumentType.word()).executes(context -> {
+                            WaystoneStorage storage = WaystoneStorage
+                                    .getServerState(context.getSource().getServer());
+                            WaystoneRecord record = findWaystone(storage,
+                                    StringArgumentType.getString(context, "hash"));
+                            Collection<ServerPlayer> targets = EntityArgument.getPlayers(context, "targets");
+
+                            // Everyone is moved together and for free, the destination is checked once
+                            TeleportScheduler.submitGroup(targets, record);
+                            context.getSource().sendSuccess(() -> Component.translatable(
+                                    "command.sswaystones.group_teleport", targets.size(), record.getWaystoneText()),
+                                    true);
+
+                            return targets.size();
+                        }))))
                 .then(literal("showall")
                         .requires(source -> Permissions.check(source, "sswaystones.showall", PermissionLevel.ADMINS))
                         .executes(context -> {
                             ServerPlayer player = context.getSource().getPlayerOrException();
                             UUID uuid = player.getUUID();
+                            AccessCache.invalidate(uuid);
                             if (ViewerUtil.mayAccessAll.contains(uuid)) {
                                 ViewerUtil.mayAccessAll.remove(uuid);
                                 context.getSource().sendSuccess(() -> Component
@@ -102,6 +120,80 @@ public class WaystonesCommand {
 
                             return 1;
                         }))
+                .then(literal("stats").then(literal("holograms").executes(context -> {
+                    context.getSource().sendSuccess(
+                            () -> Component.translatable("command.sswaystones.stats_holograms_header"), false);
+                    for (ServerLevel world : context.getSource().getServer().getAllLevels()) {
+                        WaystoneScheduler scheduler = WaystoneScheduler.find(world);
+                        if (scheduler == null)
+                            continue;
+
+                        context.getSource().sendSuccess(() -> Component.translatable(
+                                "command.sswaystones.stats_holograms", world.dimension().identifier().toString(),
+                                scheduler.getActiveCount(), scheduler.getLastServiced(),
+                                String.format("%.3f", scheduler.getLastTickNanos() / 1_000_000d)), false);
+                    }
+                    context.getSource().sendSuccess(() -> Component.translatable(
+                            "command.sswaystones.stats_holograms_attached", WaystoneBlockEntity.getLiveAttachments()),
+                            false);
+                    return 1;
+                })).then(literal("opens").executes(context -> {
+                    context.getSource().sendSuccess(() -> Component.translatable("command.sswaystones.stats_opens",
+                            ViewerUtil.getDroppedOpens(), ViewerUtil.getPendingOpens()), false);
+                    return 1;
+                })).then(literal("gui").executes(context -> {
+                    context.getSource()
+                            .sendSuccess(() -> Component.translatable("command.sswaystones.stats_gui_header"), false);
+                    for (GuiMetrics.Type type : GuiMetrics.Type.values()) {
+                        GuiMetrics.Summary summary = GuiMetrics.summarize(type);
+                        context.getSource().sendSuccess(() -> Component.translatable("command.sswaystones.stats_gui",
+                                type.name().toLowerCase(), summary.count(), String.format("%.3f", summary.p50()),
+                                String.format("%.3f", summary.p95()), String.format("%.3f", summary.p99()),
+                                summary.averageBytes() / 1024, summary.averageSize()), false);
+                    }
+                    return 1;
+                })))
+                .then(literal("verify").then(literal("status").executes(context -> {
+                    MinecraftServer server = context.getSource().getServer();
+                    context.getSource().sendSuccess(() -> Component.translatable("command.sswaystones.verify_status",
+                            WaystoneVerifier.getState(server).name().toLowerCase(), WaystoneVerifier.getChecked(),
+                            WaystoneVerifier.getTotal(), WaystoneVerifier.getPendingReads(),
+                            WaystoneVerifier.getUnloaded()), false);
+                    context.getSource().sendSuccess(() -> Component.translatable("command.sswaystones.verify_orphans",
+                            WaystoneVerifier.getOrphans().size(), WaystoneVerifier.getRemoved()), false);
+                    for (String hash : WaystoneVerifier.getOrphans()) {
+                        context.getSource().sendSuccess(() -> Component.literal("§7- " + hash.substring(0, 7)), false);
+                    }
+                    return 1;
+                })).then(literal("start").executes(context -> {
+                    WaystoneVerifier.start(context.getSource().getServer());
+                    context.getSource().sendSuccess(() -> Component.translatable("command.sswaystones.verify_started"),
+                            true);
+                    return 1;
+                })).then(literal("stop").executes(context -> {
+                    WaystoneVerifier.stop();
+                    context.getSource().sendSuccess(() -> Component.translatable("command.sswaystones.verify_stopped"),
+                            true);
+                    return 1;
+                })))
+                .then(literal("recover").then(literal("start").executes(context -> {
+                    if (!WaystoneRecovery.start(context.getSource().getServer())) {
+                        throw new CommandSyntaxException(
+                                CommandSyntaxException.BUILT_IN_EXCEPTIONS.dispatcherUnknownArgument(),
+                                Component.translatable("command.sswaystones.recover_running"));
+                    }
+
+                    context.getSource().sendSuccess(() -> Component.translatable("command.sswaystones.recover_started",
+                            WaystoneRecovery.getRegionsTotal()), true);
+                    return 1;
+                })).then(literal("status").executes(context -> {
+                    context.getSource().sendSuccess(() -> Component.translatable("command.sswaystones.recover_status",
+                            WaystoneRecovery.isRunning() ? "running" : "idle", WaystoneRecovery.getRegionsScanned(),
+                            WaystoneRecovery.getRegionsTotal(), WaystoneRecovery.getChunksRead(),
+                            WaystoneRecovery.getFound(), WaystoneRecovery.getGone(), WaystoneRecovery.getRestored(),
+                            WaystoneRecovery.getExternal(), WaystoneRecovery.getErrors()), false);
+                    return 1;
+                })))
                 .then(literal("config").then(literal("help").executes(context -> {
                     context.getSource()
                             .sendSuccess(() -> Component.translatable("command.sswaystones.config_help_header"), false);
@@ -116,6 +208,18 @@ public class WaystonesCommand {
                     context.getSource().sendSuccess(
                             () -> Component.translatable("command.sswaystones.config_reload_success"), true);
                     return 1;
+                })).then(literal("xpcosts").executes(context -> {
+                    MinecraftServer server = context.getSource().getServer();
+                    context.getSource().sendSuccess(
+                            () -> Component.translatable("command.sswaystones.config_xp_costs_header"), false);
+                    for (ResourceKey<Level> source : server.levelKeys()) {
+                        for (ResourceKey<Level> target : server.levelKeys()) {
+                            context.getSource().sendSuccess(() -> Component.translatable(
+                                    "command.sswaystones.config_xp_cost", source.identifier().toString(),
+                                    target.identifier().toString(), XpCostTable.getCost(source, target)), false);
+                        }
+                    }
+                    return 1;
                 })).then(literal("save").executes(context -> {
                     Waystones.configuration.save();
                     context.getSource().sendSuccess(
@@ -157,6 +261,7 @@ public class WaystonesCommand {
                             }
 
                             NameGenerator.reloadFiles();
+                            XpCostTable.compile(instance);
 
                             context.getSource()
                                     .sendSuccess(() -> Component.translatable("command.sswaystones.config_set_success",
@@ -208,6 +313,19 @@ public class WaystonesCommand {
         return null;
     }
 
+    // Finds a waystone by the start of its hash, like the ones shown in the list
+    private static WaystoneRecord findWaystone(WaystoneStorage storage, String hash) throws CommandSyntaxException {
+        String search = hash.toLowerCase(Locale.ROOT);
+        Optional<Map.Entry<String, WaystoneRecord>> entry = storage.waystones.entrySet().stream()
+                .filter(w -> w.getKey().toLowerCase(Locale.ROOT).startsWith(search)).findFirst();
+        if (entry.isEmpty()) {
+            throw new CommandSyntaxException(CommandSyntaxException.BUILT_IN_EXCEPTIONS.dispatcherUnknownArgument(),
+                    Component.translatable("command.sswaystones.waystone_not_found"));
+        }
+
+        return entry.get().getValue();
+    }
+
     private static Component formatKey(String key) {
         return Component.literal(key.toLowerCase()).withStyle(ChatFormatting.ITALIC, ChatFormatting.WHITE);
     }
@@ -23,6 +23,7 @@ public class Configuration {
     public Configuration(String name) {
         Path configFolder = FabricLoader.getInstance().getConfigDir();
         configFile = configFolder.resolve(name).toFile();
+        XpCostTable.compile(instance);
     }
 
     public Instance getInstance() {
@@ -45,6 +46,7 @@ public class Configuration {
                 instance = loaded;
 
             NameGenerator.reloadFiles();
+            XpCostTable.compile(instance);
         } catch (IOException exception) {
             Waystones.LOGGER.warn("Could not load configuration from disk!", exception);
         } catch (JsonSyntaxException exception) {
@@ -62,6 +64,18 @@ public class Configuration {
         @Description(translation = "config.sswaystones.cross_dimension_xp_cost")
         public int crossDimensionXpCost = 1;
 
+        @SerializedName("xp_cost_overrides")
+        @Description(translation = "config.sswaystones.xp_cost_overrides")
+        public String xpCostOverrides = "";
+
+        @SerializedName("teleport_preload_timeout")
+        @Description(translation = "config.sswaystones.teleport_preload_timeout")
+        public int teleportPreloadTimeout = 200;
+
+        @SerializedName("teleports_per_tick")
+        @Description(translation = "config.sswaystones.teleports_per_tick")
+        public int teleportsPerTick = 4;
+
         @SerializedName("combat_cooldown")
         @Description(translation = "config.sswaystones.combat_cooldown")
         public int combatCooldown = 0;
@@ -82,6 +96,18 @@ public class Configuration {
         @Description(translation = "config.sswaystones.remove_invalid_waystones")
         public boolean removeInvalidWaystones = true;
 
+        @SerializedName("verifier_checks_per_tick")
+        @Description(translation = "config.sswaystones.verifier_checks_per_tick")
+        public int verifierChecksPerTick = 1;
+
+        @SerializedName("verifier_read_regions")
+        @Description(translation = "config.sswaystones.verifier_read_regions")
+        public boolean verifierReadRegions = true;
+
+        @SerializedName("recover_on_start")
+        @Description(translation = "config.sswaystones.recover_on_start")
+        public boolean recoverOnStart = false;
+
         @SerializedName("physical_icon_display")
         @Description(translation = "config.sswaystones.physical_icon_display")
         public boolean physicalIconDisplay = false;
@@ -93,5 +119,25 @@ public class Configuration {
         @SerializedName("village_structures")
         @Description(translation = "config.sswaystones.village_structures")
         public boolean injectVillageStructures = true;
+
+        @SerializedName("hologram_updates_per_tick")
+        @Description(translation = "config.sswaystones.hologram_updates_per_tick")
+        public int hologramUpdatesPerTick = 64;
+
+        @SerializedName("particle_budget")
+        @Description(translation = "config.sswaystones.particle_budget")
+        public int particleBudget = 256;
+
+        @SerializedName("particle_radius")
+        @Description(translation = "config.sswaystones.particle_radius")
+        public int particleRadius = 32;
+
+        @SerializedName("particle_lod_distance")
+        @Description(translation = "config.sswaystones.particle_lod_distance")
+        public int particleLodDistance = 12;
+
+        @SerializedName("viewer_open_cooldown")
+        @Description(translation = "config.sswaystones.viewer_open_cooldown")
+        public int viewerOpenCooldown = 10;
     }
 }
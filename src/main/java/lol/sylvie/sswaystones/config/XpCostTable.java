@@ -0,0 +1,108 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.config;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import lol.sylvie.sswaystones.Waystones;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.Identifier;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+
+/**
+ * XP costs between dimensions, compiled from the configuration whenever it
+ * changes. Overrides are written as {@code target=cost} for teleports ending in
+ * a dimension and {@code source>target=cost} for a single pair, separated by
+ * commas. Anything not covered uses xp_cost or cross_dimension_xp_cost.
+ */
+public class XpCostTable {
+    private static Map<ResourceKey<Level>, Integer> indices = new IdentityHashMap<>();
+    private static int[][] costs = new int[0][0];
+    private static int sameDimensionCost = 0;
+    private static int crossDimensionCost = 0;
+
+    public static void compile(Configuration.Instance config) {
+        Map<ResourceKey<Level>, Integer> newIndices = new IdentityHashMap<>();
+        List<ResourceKey<Level>> dimensions = new ArrayList<>(List.of(Level.OVERWORLD, Level.NETHER, Level.END));
+        Map<ResourceKey<Level>, Integer> targetOverrides = new IdentityHashMap<>();
+        Map<ResourceKey<Level>, Map<ResourceKey<Level>, Integer>> pairOverrides = new IdentityHashMap<>();
+
+        String overrides = config.xpCostOverrides == null ? "" : config.xpCostOverrides;
+        for (String entry : overrides.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty())
+                continue;
+
+            int equals = entry.lastIndexOf('=');
+            if (equals == -1) {
+                Waystones.LOGGER.warn("Invalid XP cost override \"{}\", expected an \"=\"", entry);
+                continue;
+            }
+
+            int cost;
+            try {
+                cost = Integer.parseInt(entry.substring(equals + 1).trim());
+            } catch (NumberFormatException exception) {
+                Waystones.LOGGER.warn("Invalid XP cost override \"{}\", the cost is not a number", entry);
+                continue;
+            }
+
+            String[] pair = entry.substring(0, equals).split(">");
+            ResourceKey<Level> source = pair.length == 2 ? parseDimension(pair[0]) : null;
+            ResourceKey<Level> target = parseDimension(pair[pair.length - 1]);
+            if (pair.length > 2 || target == null || (pair.length == 2 && source == null)) {
+                Waystones.LOGGER.warn("Invalid XP cost override \"{}\", unknown dimension", entry);
+                continue;
+            }
+
+            if (!dimensions.contains(target))
+                dimensions.add(target);
+            if (source == null) {
+                targetOverrides.put(target, cost);
+                continue;
+            }
+
+            if (!dimensions.contains(source))
+                dimensions.add(source);
+            pairOverrides.computeIfAbsent(source, key -> new IdentityHashMap<>()).put(target, cost);
+        }
+
+        int[][] newCosts = new int[dimensions.size()][dimensions.size()];
+        for (int from = 0; from < dimensions.size(); from++) {
+            ResourceKey<Level> source = dimensions.get(from);
+            newIndices.put(source, from);
+
+            Map<ResourceKey<Level>, Integer> sourceOverrides = pairOverrides.getOrDefault(source, Map.of());
+            for (int to = 0; to < dimensions.size(); to++) {
+                ResourceKey<Level> target = dimensions.get(to);
+                int fallback = from == to ? config.xpCost : config.crossDimensionXpCost;
+                newCosts[from][to] = sourceOverrides.getOrDefault(target,
+                        targetOverrides.getOrDefault(target, fallback));
+            }
+        }
+
+        indices = newIndices;
+        costs = newCosts;
+        sameDimensionCost = config.xpCost;
+        crossDimensionCost = config.crossDimensionXpCost;
+    }
+
+    private static ResourceKey<Level> parseDimension(String name) {
+        Identifier id = Identifier.tryParse(name.trim());
+        return id == null ? null : ResourceKey.create(Registries.DIMENSION, id);
+    }
+
+    public static int getCost(ResourceKey<Level> source, ResourceKey<Level> target) {
+        Integer from = indices.get(source);
+        Integer to = indices.get(target);
+        if (from == null || to == null)
+            return source == target ? sameDimensionCost : crossDimensionCost;
+
+        return costs[from][to];
+    }
+}
@@ -0,0 +1,92 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.gui;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Rolling timing and allocation samples for the viewers, shown by
+ * {@code /sswaystones stats gui}. Callers take {@link System#nanoTime()} and
+ * {@link #allocatedBytes()} before the work and pass both to
+ * {@link #record(Type, long, long, int)} afterwards.
+ */
+public class GuiMetrics {
+    private static final int SAMPLES = 256;
+    private static final com.sun.management.ThreadMXBean THREADS = getThreadBean();
+
+    private static final Map<Type, Samples> SAMPLES_BY_TYPE = new EnumMap<>(Type.class);
+
+    public enum Type {
+        OPEN, PAGE, ELEMENT, FORM
+    }
+
+    // Ring buffers of the most recent samples
+    private static class Samples {
+        private final long[] nanos = new long[SAMPLES];
+        private final long[] bytes = new long[SAMPLES];
+        private final int[] sizes = new int[SAMPLES];
+        private long count = 0;
+    }
+
+    static {
+        for (Type type : Type.values()) {
+            SAMPLES_BY_TYPE.put(type, new Samples());
+        }
+    }
+
+    public record Summary(long count, double p50, double p95, double p99, long averageBytes, int averageSize) {
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        // Allocation counters aren't available on every JVM
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+            return bean;
+        return null;
+    }
+
+    public static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    // Size is how many waystones the work was about
+    public static void record(Type type, long startNanos, long startBytes, int size) {
+        Samples samples = SAMPLES_BY_TYPE.get(type);
+        int index = (int) (samples.count % SAMPLES);
+        samples.nanos[index] = System.nanoTime() - startNanos;
+        samples.bytes[index] = allocatedBytes() - startBytes;
+        samples.sizes[index] = size;
+        samples.count++;
+    }
+
+    public static Summary summarize(Type type) {
+        Samples samples = SAMPLES_BY_TYPE.get(type);
+        int filled = (int) Math.min(samples.count, SAMPLES);
+        if (filled == 0)
+            return new Summary(0, 0, 0, 0, 0, 0);
+
+        long[] nanos = Arrays.copyOf(samples.nanos, filled);
+        Arrays.sort(nanos);
+
+        long bytes = 0;
+        long size = 0;
+        for (int i = 0; i < filled; i++) {
+            bytes += samples.bytes[i];
+            size += samples.sizes[i];
+        }
+
+        return new Summary(samples.count, percentile(nanos, 0.5), percentile(nanos, 0.95), percentile(nanos, 0.99),
+                bytes / filled, (int) (size / filled));
+    }
+
+    // In milliseconds
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.clamp(index, 0, sorted.length - 1)] / 1_000_000d;
+    }
+}
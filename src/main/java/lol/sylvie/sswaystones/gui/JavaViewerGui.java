@@ -5,17 +5,23 @@
 package lol.sylvie.sswaystones.gui;
 
 import eu.pb4.sgui.api.ClickType;
+import eu.pb4.sgui.api.elements.GuiElement;
 import eu.pb4.sgui.api.elements.GuiElementBuilder;
+import eu.pb4.sgui.api.elements.GuiElementInterface;
 import eu.pb4.sgui.api.gui.*;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import lol.sylvie.sswaystones.block.WaystoneBlockEntity;
 import lol.sylvie.sswaystones.integration.SquaremapIntegration;
+import lol.sylvie.sswaystones.storage.AccessCache;
 import lol.sylvie.sswaystones.storage.PlayerData;
 import lol.sylvie.sswaystones.storage.WaystoneRecord;
 import lol.sylvie.sswaystones.storage.WaystoneStorage;
+import lol.sylvie.sswaystones.util.ConcatList;
 import me.lucko.fabric.api.permissions.v0.Permissions;
 import net.minecraft.ChatFormatting;
-import net.minecraft.core.BlockPos;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.inventory.MenuType;
@@ -27,91 +33,78 @@ import org.jetbrains.annotations.Nullable;
 public class JavaViewerGui extends SimpleGui {
     private static final int ITEMS_PER_PAGE = 9 * 5;
     private final WaystoneRecord waystone;
+    private final @Nullable String query; // Only showing search results when set
     private int pageIndex = 0;
 
     private final WaystoneStorage storage;
     private final PlayerData playerData;
-    private final List<WaystoneRecord> favorites;
-    private final List<WaystoneRecord> nonFavorites;
-    private final boolean hasFavorites;
-    private final int maxPages;
+    private List<WaystoneRecord> favorites;
+    private List<WaystoneRecord> nonFavorites;
+    private List<WaystoneRecord> all; // Favorites followed by the rest, not a copy
+    private boolean ownsLists = false; // The snapshot's lists are copied before changing them
+    private final int accessStamp;
+    private boolean hasFavorites;
+    private int maxPages;
+    private final Map<WaystoneRecord, GuiElement> elements = new IdentityHashMap<>();
 
     public JavaViewerGui(ServerPlayer player, @Nullable WaystoneRecord waystone) {
+        this(player, waystone, null);
+    }
+
+    public JavaViewerGui(ServerPlayer player, @Nullable WaystoneRecord waystone, @Nullable String query) {
         super(MenuType.GENERIC_9x6, player, false);
         this.waystone = waystone;
+        this.query = query;
 
         this.storage = WaystoneStorage.getServerState(player.level().getServer());
         this.playerData = WaystoneStorage.getPlayerState(player);
 
-        // Get accessible waystones (includes current waystone in normal sort order)
-        List<WaystoneRecord> accessible = storage.getAccessibleWaystones(player, null);
+        if (query != null) {
+            // Search results are shown in order of relevance, without a favorites page
+            this.accessStamp = AccessCache.getStamp(player);
+            this.favorites = List.of();
+            this.nonFavorites = storage.searchAccessibleWaystones(player, query);
+        } else {
+            // Usually prepared ahead of time, includes the current waystone
+            ViewerSnapshot snapshot = ViewerSnapshot.get(player);
+            this.accessStamp = snapshot.accessStamp();
+            this.favorites = snapshot.favorites();
+            this.nonFavorites = snapshot.nonFavorites();
+        }
+        this.all = new ConcatList<>(favorites, nonFavorites);
 
-        // Separate favorites and non-favorites
-        this.favorites = new ArrayList<>();
-        this.nonFavorites = new ArrayList<>();
+        this.updatePageCount();
 
-        for (WaystoneRecord record : accessible) {
-            if (playerData.isFavorite(record.getHash())) {
-                this.favorites.add(record);
-            } else {
-                this.nonFavorites.add(record);
-            }
-        }
+        this.updateTitle();
+        this.setupControls();
+        this.updateMenu();
+    }
 
-        this.hasFavorites = !favorites.isEmpty();
+    private void updatePageCount() {
+        // The access cache keeps counts, as long as they still describe the lists
+        // we're showing
+        boolean useCounts = query == null && AccessCache.getStamp(player) == accessStamp;
+        int favoriteCount = useCounts ? storage.getFavoriteCount(player) : favorites.size();
+        int accessibleCount = useCounts ? storage.getAccessibleCount(player) : all.size();
+        this.hasFavorites = favoriteCount > 0;
 
         // Calculate max pages: if has favorites, page 0 is favorites, then regular
         // pages
-        int totalItems = hasFavorites ? nonFavorites.size() : getAllAccessible().size();
+        int totalItems = hasFavorites ? accessibleCount - favoriteCount : accessibleCount;
         int regularPages = Math.max(Math.ceilDiv(totalItems, ITEMS_PER_PAGE), 1);
         this.maxPages = hasFavorites ? regularPages + 1 : regularPages;
-
-        this.updateMenu();
     }
 
-    public void updateMenu() {
-        // Determine if this is the favorites page
-        boolean isFavoritesPage = hasFavorites && pageIndex == 0;
-
-        // Update title
-        if (waystone != null) {
-            String pageSuffix = isFavoritesPage ? "★" : String.valueOf(pageIndex + 1);
-            this.setTitle(Component.literal(String.format("%s [%s] (%s/%s)", waystone.getWaystoneName(),
-                    waystone.getOwnerName(), pageSuffix, maxPages)));
-        } else {
-            String pageSuffix = isFavoritesPage ? "★" : String.valueOf(pageIndex + 1);
-            this.setTitle(Component.literal(String.format("Waystones (%s/%s)", pageSuffix, maxPages)));
-        }
-
-        for (int i = 0; i < ITEMS_PER_PAGE; i++) {
-            this.clearSlot(i);
-        }
-
-        // Determine which list to display and calculate offset
-        List<WaystoneRecord> displayList;
-        int offset;
-
-        if (isFavoritesPage) {
-            displayList = this.favorites;
-            offset = 0;
-        } else {
-            displayList = hasFavorites ? this.nonFavorites : getAllAccessible();
-            // If has favorites, page 1 is the first regular page (index 0 in nonFavorites)
-            int regularPageIndex = hasFavorites ? pageIndex - 1 : pageIndex;
-            offset = ITEMS_PER_PAGE * regularPageIndex;
-        }
-
-        for (int i = offset; i < displayList.size(); i++) {
-            WaystoneRecord record = displayList.get(i);
-            int slot = i - offset;
-            if (slot >= 45)
-                break;
+    public @Nullable WaystoneRecord getWaystone() {
+        return waystone;
+    }
 
-            boolean isFavorite = playerData.isFavorite(record.getHash());
-            GuiElementBuilder element = createWaystoneElement(record, isFavorite);
-            this.setSlot(slot, element);
-        }
+    public boolean isSearch() {
+        return query != null;
+    }
 
+    // Controls never change while the GUI is open, so they are only set once
+    private void setupControls() {
         for (int i = 45; i < 54; i++) {
             this.setSlot(i, new GuiElementBuilder(Items.GRAY_STAINED_GLASS_PANE).setName(Component.empty()));
         }
@@ -127,6 +120,11 @@ public class JavaViewerGui extends SimpleGui {
                         .setName(Component.translatable("gui.sswaystones.page_next"))
                         .setCallback((index, type, action, gui) -> nextPage()));
 
+        this.setSlot(48,
+                new GuiElementBuilder(Items.COMPASS)
+                        .setName(Component.translatable("gui.sswaystones.search").withStyle(ChatFormatting.YELLOW))
+                        .setCallback((index, type, action, gui) -> new SearchGui(waystone, player, query).open()));
+
         // Waystone settings
         if (waystone == null)
             return;
@@ -138,7 +136,9 @@ public class JavaViewerGui extends SimpleGui {
                         .setName(Component.translatable("gui.sswaystones.steal_waystone").withStyle(ChatFormatting.RED))
                         .setCallback((index, type, action, gui) -> {
                             waystone.setOwner(player);
-                            this.updateMenu();
+                            this.setSlot(50, new GuiElementBuilder(Items.GRAY_STAINED_GLASS_PANE)
+                                    .setName(Component.empty()));
+                            this.updateTitle();
                         }));
             }
 
@@ -159,6 +159,72 @@ public class JavaViewerGui extends SimpleGui {
         }
     }
 
+    // Changing the title makes the client reopen the whole screen, so the page
+    // number is shown in the page indicator slot instead
+    private void updateTitle() {
+        if (query != null) {
+            this.setTitle(Component.translatable("gui.sswaystones.search_results", query));
+        } else if (waystone != null) {
+            this.setTitle(Component
+                    .literal(String.format("%s [%s]", waystone.getWaystoneName(), waystone.getOwnerName())));
+        } else {
+            this.setTitle(Component.literal("Waystones"));
+        }
+    }
+
+    public void updateMenu() {
+        long startNanos = System.nanoTime();
+        long startBytes = GuiMetrics.allocatedBytes();
+
+        // Determine if this is the favorites page
+        boolean isFavoritesPage = hasFavorites && pageIndex == 0;
+
+        // Determine which list to display and calculate offset
+        List<WaystoneRecord> displayList;
+        int offset;
+
+        if (isFavoritesPage) {
+            displayList = this.favorites;
+            offset = 0;
+        } else {
+            displayList = hasFavorites ? this.nonFavorites : this.all;
+            // If has favorites, page 1 is the first regular page (index 0 in nonFavorites)
+            int regularPageIndex = hasFavorites ? pageIndex - 1 : pageIndex;
+            offset = ITEMS_PER_PAGE * regularPageIndex;
+        }
+
+        // Only touch the slots whose element actually changed
+        for (int slot = 0; slot < ITEMS_PER_PAGE; slot++) {
+            int i = offset + slot;
+            GuiElementInterface element = null;
+            if (i < displayList.size()) {
+                WaystoneRecord record = displayList.get(i);
+                element = getWaystoneElement(record, playerData.isFavorite(record.getHash()));
+            }
+
+            if (this.getSlot(slot) == element)
+                continue;
+
+            if (element == null) {
+                this.clearSlot(slot);
+            } else {
+                this.setSlot(slot, element);
+            }
+        }
+
+        // Page indicator
+        String pageSuffix = isFavoritesPage ? "★" : String.valueOf(pageIndex + 1);
+        this.setSlot(46, new GuiElementBuilder(Items.GRAY_STAINED_GLASS_PANE)
+                .setName(Component.translatable("gui.sswaystones.page", pageSuffix, maxPages)));
+
+        GuiMetrics.record(GuiMetrics.Type.PAGE, startNanos, startBytes,
+                Math.clamp(displayList.size() - offset, 0, ITEMS_PER_PAGE));
+    }
+
+    public int getWaystoneCount() {
+        return all.size();
+    }
+
     public void previousPage() {
         pageIndex--;
         if (pageIndex < 0) {
@@ -177,124 +243,83 @@ public class JavaViewerGui extends SimpleGui {
         this.updateMenu();
     }
 
-    private List<WaystoneRecord> getAllAccessible() {
-        List<WaystoneRecord> all = new ArrayList<>();
-        all.addAll(favorites);
-        all.addAll(nonFavorites);
-        return all;
+    private void copyLists() {
+        if (ownsLists)
+            return;
+
+        this.favorites = new ArrayList<>(favorites);
+        this.nonFavorites = new ArrayList<>(nonFavorites);
+        this.all = new ConcatList<>(favorites, nonFavorites);
+        this.ownsLists = true;
     }
 
-    private GuiElementBuilder createWaystoneElement(WaystoneRecord record, boolean isFavorite) {
+    private GuiElement getWaystoneElement(WaystoneRecord record, boolean isFavorite) {
         boolean isCurrentWaystone = waystone != null && record.getHash().equals(waystone.getHash());
-
-        GuiElementBuilder element = new GuiElementBuilder(record.getIconOrHead(player.level().getServer()))
-                .setName(record.getWaystoneText().copy().withStyle(ChatFormatting.YELLOW));
-
-        // Dimension display logic
-        int dimensionCount = 1;
-        ChatFormatting dimensionColor = ChatFormatting.AQUA; // Default for overworld
-        String dimensionId = record.getWorldKey().identifier().toString();
-
-        if ("minecraft:the_nether".equals(dimensionId)) {
-            dimensionCount = 2;
-            dimensionColor = ChatFormatting.RED; // Nether
-        } else if ("minecraft:the_end".equals(dimensionId)) {
-            dimensionCount = 3;
-            dimensionColor = ChatFormatting.BLUE; // End
-        }
-
-        // Current waystone uses count 64 to distinguish
-        if (isCurrentWaystone) {
-            dimensionCount = 64;
+        int xpCost = isCurrentWaystone ? 0 : record.getXpCost(player);
+        ItemStack stack = WaystoneElementCache.getStack(player.level().getServer(), record, isCurrentWaystone,
+                isFavorite, xpCost);
+
+        // Reuse the element from the last time this waystone was shown, unless its
+        // display changed since then
+        GuiElement element = elements.get(record);
+        if (element == null || element.getItemStack() != stack) {
+            element = new GuiElement(stack, (index, type, action, gui) -> onWaystoneClick(record, type, gui));
+            elements.put(record, element);
         }
 
-        element.setCount(dimensionCount);
-        element.setName(record.getWaystoneText().copy().withStyle(dimensionColor));
-
-        if (record.getAccessSettings().isServerOwned()) {
-            element.glow(true);
-        }
-
-        List<Component> loreLines = new ArrayList<>();
-
-        // Show "Current Location" indicator for current waystone
-        if (isCurrentWaystone) {
-            loreLines.add(
-                    Component.translatable("gui.sswaystones.current_location").withStyle(ChatFormatting.LIGHT_PURPLE));
-        }
-
-        BlockPos pos = record.getPos();
-        String coords = String.format("%d, %d, %d", pos.getX(), pos.getY(), pos.getZ());
-        loreLines.add(Component.nullToEmpty(coords));
+        return element;
+    }
 
-        if (!record.getAccessSettings().isServerOwned()) {
-            loreLines.add(Component.nullToEmpty(record.getOwnerName()).copy().withStyle(ChatFormatting.GRAY));
-        }
+    private void onWaystoneClick(WaystoneRecord record, ClickType type, SlotGuiInterface gui) {
+        if (type == ClickType.MOUSE_LEFT_SHIFT || type == ClickType.MOUSE_RIGHT_SHIFT) {
+            // Toggle favorite
+            String hash = record.getHash();
+            boolean wasFavorite = playerData.isFavorite(hash);
+
+            if (query != null && (wasFavorite || playerData.canAddFavorite())) {
+                // Search results stay where they are, only the star changes
+                storage.toggleFavorite(player, record);
+            } else if (wasFavorite) {
+                // Remove from favorites
+                copyLists();
+                storage.toggleFavorite(player, record);
+                favorites.remove(record);
+                WaystoneStorage.insertInViewerOrder(nonFavorites, record);
+            } else if (playerData.canAddFavorite()) {
+                // Add to favorites
+                copyLists();
+                storage.toggleFavorite(player, record);
+                nonFavorites.remove(record);
+                WaystoneStorage.insertInViewerOrder(favorites, record);
+            } else {
+                // Can't add, favorites full
+                player.sendSystemMessage(
+                        Component.translatable("error.sswaystones.favorites_full").withStyle(ChatFormatting.RED));
+                return;
+            }
 
-        // Add favorite indicator
-        if (isFavorite) {
-            loreLines.add(Component.literal("★ ").withStyle(ChatFormatting.GOLD)
-                    .append(Component.translatable("gui.sswaystones.favorite").withStyle(ChatFormatting.GOLD)));
-        }
+            ViewerSnapshot.onFavoriteToggled(player, record);
 
-        // Add XP cost display (not for current waystone since you can't teleport to
-        // yourself)
-        if (!isCurrentWaystone) {
-            int xpCost = record.getXpCost(player);
-            if (xpCost > 0) {
-                loreLines
-                        .add(Component.translatable("gui.sswaystones.xp_cost", xpCost).withStyle(ChatFormatting.GREEN));
+            // The favorites page may have appeared or disappeared, stay on the same
+            // regular page if it did
+            boolean hadFavorites = hasFavorites;
+            updatePageCount();
+            if (hasFavorites && !hadFavorites) {
+                pageIndex++;
+            } else if (!hasFavorites && hadFavorites) {
+                pageIndex--;
             }
-        }
+            pageIndex = Math.clamp(pageIndex, 0, maxPages - 1);
 
-        loreLines.add(Component.empty());
-        if (isCurrentWaystone) {
-            loreLines.add(Component.translatable("gui.sswaystones.shift_click_to_toggle_favorite")
-                    .withStyle(ChatFormatting.DARK_GRAY));
+            this.updateMenu();
         } else {
-            loreLines.add(
-                    Component.translatable("gui.sswaystones.click_to_teleport").withStyle(ChatFormatting.DARK_GRAY));
-            loreLines.add(Component.translatable("gui.sswaystones.shift_click_to_toggle_favorite")
-                    .withStyle(ChatFormatting.DARK_GRAY));
-        }
-
-        element.setLore(loreLines);
-
-        element.setCallback((index, type, action, gui) -> {
-            if (type == ClickType.MOUSE_LEFT_SHIFT || type == ClickType.MOUSE_RIGHT_SHIFT) {
-                // Toggle favorite
-                String hash = record.getHash();
-                boolean wasFavorite = playerData.isFavorite(hash);
-
-                if (wasFavorite) {
-                    // Remove from favorites
-                    playerData.toggleFavorite(hash);
-                    favorites.remove(record);
-                    nonFavorites.addFirst(record);
-                } else if (playerData.canAddFavorite()) {
-                    // Add to favorites
-                    playerData.toggleFavorite(hash);
-                    nonFavorites.remove(record);
-                    favorites.add(record);
-                } else {
-                    // Can't add, favorites full
-                    player.sendSystemMessage(
-                            Component.translatable("error.sswaystones.favorites_full").withStyle(ChatFormatting.RED));
-                }
-
-                // Rebuild GUI to update favorites page visibility
-                ViewerUtil.openJavaGui(player, waystone);
-            } else {
-                // Don't teleport if clicking on current waystone
-                boolean clickedCurrentWaystone = waystone != null && record.getHash().equals(waystone.getHash());
-                if (!clickedCurrentWaystone) {
-                    record.handleTeleport(player);
-                    gui.close();
-                }
+            // Don't teleport if clicking on current waystone
+            boolean clickedCurrentWaystone = waystone != null && record.getHash().equals(waystone.getHash());
+            if (!clickedCurrentWaystone) {
+                record.handleTeleport(player);
+                gui.close();
             }
-        });
-
-        return element;
+        }
     }
 
     protected static class NameGui extends AnvilInputGui {
@@ -313,7 +338,8 @@ public class JavaViewerGui extends SimpleGui {
             this.setSlot(2, new GuiElementBuilder(Items.PLAYER_HEAD).setSkullOwner(IconConstants.CHECKMARK)
                     .setName(Component.translatable("gui.done")).setCallback((index, type, action, gui) -> {
                         String input = this.getInput();
-                        waystone.setWaystoneName(input);
+                        WaystoneStorage.getServerState(player.level().getServer()).renameWaystone(waystone, input);
+                        WaystoneBlockEntity.refreshDisplay(player.level().getServer(), waystone);
                         gui.close();
                     }));
 
@@ -327,6 +353,41 @@ public class JavaViewerGui extends SimpleGui {
         }
     }
 
+    protected static class SearchGui extends AnvilInputGui {
+        private final WaystoneRecord waystone;
+        private @Nullable String query;
+
+        public SearchGui(@Nullable WaystoneRecord waystone, ServerPlayer player, @Nullable String query) {
+            super(player, false);
+            this.waystone = waystone;
+            this.query = query;
+
+            this.setDefaultInputValue(query == null ? "" : query);
+            this.setSlot(1,
+                    new GuiElementBuilder(Items.PLAYER_HEAD).setSkullOwner(IconConstants.CANCEL)
+                            .setName(Component.translatable("gui.back"))
+                            .setCallback((index, type, action, gui) -> {
+                                this.query = null;
+                                gui.close();
+                            }));
+
+            this.setSlot(2, new GuiElementBuilder(Items.PLAYER_HEAD).setSkullOwner(IconConstants.CHECKMARK)
+                    .setName(Component.translatable("gui.done")).setCallback((index, type, action, gui) -> {
+                        String input = this.getInput().trim();
+                        this.query = input.isEmpty() ? null : input;
+                        gui.close();
+                    }));
+
+            this.setTitle(Component.translatable("gui.sswaystones.search"));
+        }
+
+        @Override
+        public void onClose() {
+            super.onClose();
+            ViewerUtil.openJavaGui(player, waystone, query);
+        }
+    }
+
     protected static class IconGui extends SimpleGui {
         private final WaystoneRecord waystone;
 
@@ -419,6 +480,7 @@ public class JavaViewerGui extends SimpleGui {
 
                 teamToggle.setCallback((index, type, action, gui) -> {
                     accessSettings.setTeam(accessSettings.hasTeam() ? "" : teamName);
+                    WaystoneBlockEntity.refreshDisplay(player.level().getServer(), waystone);
                     this.updateMenu();
                 });
                 this.setSlot(slot, teamToggle);
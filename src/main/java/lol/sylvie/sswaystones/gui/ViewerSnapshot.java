@@ -0,0 +1,179 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.gui;
+
+import java.util.*;
+import lol.sylvie.sswaystones.storage.AccessCache;
+import lol.sylvie.sswaystones.storage.PlayerData;
+import lol.sylvie.sswaystones.storage.WaystoneRecord;
+import lol.sylvie.sswaystones.storage.WaystoneStorage;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The waystones a player sees in the viewer, split into favorites and the rest.
+ * Single waystones gaining or losing access are patched into the snapshot, and
+ * snapshots that went stale anyway are rebuilt at the end of ticks, so opening
+ * the viewer usually just binds the existing lists. The lists are immutable,
+ * changes produce a new snapshot.
+ */
+public record ViewerSnapshot(int accessStamp, List<WaystoneRecord> favorites, List<WaystoneRecord> nonFavorites) {
+    private static final int REFRESHES_PER_TICK = 4;
+    private static final Map<UUID, ViewerSnapshot> SNAPSHOTS = new HashMap<>();
+    private static final Set<UUID> QUEUE = new LinkedHashSet<>();
+    private static int lastRevision = -1;
+
+    public static ViewerSnapshot get(ServerPlayer player) {
+        ViewerSnapshot snapshot = SNAPSHOTS.get(player.getUUID());
+        if (snapshot == null || snapshot.accessStamp() != AccessCache.getStamp(player)) {
+            snapshot = build(player);
+            SNAPSHOTS.put(player.getUUID(), snapshot);
+        }
+
+        return snapshot;
+    }
+
+    private static ViewerSnapshot build(ServerPlayer player) {
+        WaystoneStorage storage = WaystoneStorage.getServerState(player.level().getServer());
+        PlayerData playerData = WaystoneStorage.getPlayerState(player);
+
+        // Includes the waystone the player is standing at, in normal sort order
+        List<WaystoneRecord> favorites = new ArrayList<>();
+        List<WaystoneRecord> nonFavorites = new ArrayList<>();
+        for (WaystoneRecord record : storage.getAccessibleWaystones(player, null)) {
+            if (playerData.isFavorite(record.getHash())) {
+                favorites.add(record);
+            } else {
+                nonFavorites.add(record);
+            }
+        }
+
+        return new ViewerSnapshot(AccessCache.getStamp(player), List.copyOf(favorites), List.copyOf(nonFavorites));
+    }
+
+    // Events
+    public static void prepare(ServerPlayer player) {
+        QUEUE.add(player.getUUID());
+    }
+
+    public static void onServerTick(MinecraftServer server) {
+        // Only snapshots whose access actually changed need to be built again
+        int revision = AccessCache.getRevision();
+        if (revision != lastRevision) {
+            lastRevision = revision;
+            for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+                ViewerSnapshot snapshot = SNAPSHOTS.get(player.getUUID());
+                if (snapshot == null || !AccessCache.isCurrent(player, snapshot.accessStamp()))
+                    QUEUE.add(player.getUUID());
+            }
+        }
+
+        Iterator<UUID> iterator = QUEUE.iterator();
+        for (int refreshed = 0; refreshed < REFRESHES_PER_TICK && iterator.hasNext(); refreshed++) {
+            ServerPlayer player = server.getPlayerList().getPlayer(iterator.next());
+            iterator.remove();
+            if (player != null)
+                get(player);
+        }
+    }
+
+    /**
+     * Called by the access cache when a single waystone was added to or removed
+     * from what the player can access. A snapshot taken at the previous stamp is
+     * patched, anything older is left to be rebuilt.
+     */
+    public static void onAccessChanged(UUID player, int previousStamp, int stamp, WaystoneRecord record,
+            boolean access, boolean favorite) {
+        ViewerSnapshot snapshot = SNAPSHOTS.get(player);
+        if (snapshot == null || snapshot.accessStamp() != previousStamp)
+            return;
+
+        List<WaystoneRecord> favorites = snapshot.favorites();
+        List<WaystoneRecord> nonFavorites = snapshot.nonFavorites();
+        if (access) {
+            if (favorite) {
+                favorites = insert(favorites, record);
+            } else {
+                nonFavorites = insert(nonFavorites, record);
+            }
+        } else {
+            favorites = remove(favorites, record);
+            nonFavorites = remove(nonFavorites, record);
+        }
+
+        SNAPSHOTS.put(player, new ViewerSnapshot(stamp, favorites, nonFavorites));
+    }
+
+    /**
+     * Called when something the viewer sorts by, the name or whether the waystone
+     * is server owned, changed. The waystone moves within whichever list it is in,
+     * the lists have to stay sorted for waystones to be inserted into them later.
+     */
+    public static void onReordered(WaystoneRecord record) {
+        for (Map.Entry<UUID, ViewerSnapshot> entry : SNAPSHOTS.entrySet()) {
+            ViewerSnapshot snapshot = entry.getValue();
+            if (snapshot.favorites().contains(record)) {
+                entry.setValue(new ViewerSnapshot(snapshot.accessStamp(),
+                        insert(remove(snapshot.favorites(), record), record), snapshot.nonFavorites()));
+            } else if (snapshot.nonFavorites().contains(record)) {
+                entry.setValue(new ViewerSnapshot(snapshot.accessStamp(), snapshot.favorites(),
+                        insert(remove(snapshot.nonFavorites(), record), record)));
+            }
+        }
+    }
+
+    // Moves a waystone between the favorites and the rest
+    public static void onFavoriteToggled(ServerPlayer player, WaystoneRecord record) {
+        ViewerSnapshot snapshot = SNAPSHOTS.get(player.getUUID());
+        if (snapshot == null || snapshot.accessStamp() != AccessCache.getStamp(player))
+            return;
+
+        List<WaystoneRecord> favorites = remove(snapshot.favorites(), record);
+        List<WaystoneRecord> nonFavorites = remove(snapshot.nonFavorites(), record);
+        if (WaystoneStorage.getPlayerState(player).isFavorite(record.getHash())) {
+            favorites = insert(favorites, record);
+        } else {
+            nonFavorites = insert(nonFavorites, record);
+        }
+
+        SNAPSHOTS.put(player.getUUID(), new ViewerSnapshot(snapshot.accessStamp(), favorites, nonFavorites));
+    }
+
+    // For tests, snapshots are normally built from a player
+    static void put(UUID player, ViewerSnapshot snapshot) {
+        SNAPSHOTS.put(player, snapshot);
+    }
+
+    static @Nullable ViewerSnapshot find(UUID player) {
+        return SNAPSHOTS.get(player);
+    }
+
+    public static void forget(UUID player) {
+        SNAPSHOTS.remove(player);
+        QUEUE.remove(player);
+    }
+
+    public static void clear() {
+        SNAPSHOTS.clear();
+        QUEUE.clear();
+        lastRevision = -1;
+    }
+
+    private static List<WaystoneRecord> insert(List<WaystoneRecord> list, WaystoneRecord record) {
+        List<WaystoneRecord> copy = new ArrayList<>(list);
+        WaystoneStorage.insertInViewerOrder(copy, record);
+        return List.copyOf(copy);
+    }
+
+    private static List<WaystoneRecord> remove(List<WaystoneRecord> list, WaystoneRecord record) {
+        if (!list.contains(record))
+            return list;
+
+        List<WaystoneRecord> copy = new ArrayList<>(list);
+        copy.remove(record);
+        return List.copyOf(copy);
+    }
+}
@@ -4,20 +4,30 @@
 */
 package lol.sylvie.sswaystones.gui;
 
-import java.util.HashSet;
-import java.util.UUID;
+import eu.pb4.sgui.api.GuiHelpers;
+import java.util.*;
 import lol.sylvie.sswaystones.Waystones;
 import lol.sylvie.sswaystones.gui.compat.FloodgateCompat;
 import lol.sylvie.sswaystones.storage.WaystoneRecord;
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.ChatFormatting;
 import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
 import org.jetbrains.annotations.Nullable;
 
 public class ViewerUtil {
     public static HashSet<UUID> mayAccessAll = new HashSet<>();
 
+    // Opens are deferred to the end of the tick, so a burst of clicks only builds
+    // one viewer
+    private static final Map<UUID, PendingOpen> PENDING = new LinkedHashMap<>();
+    private static final Map<UUID, Integer> LAST_OPEN = new HashMap<>();
+    private static long droppedOpens = 0;
+
+    private record PendingOpen(ServerPlayer player, @Nullable WaystoneRecord record) {
+    }
+
     public static void openGui(ServerPlayer player, @Nullable WaystoneRecord record) {
         if (Waystones.isInCombat(player)) {
             player.displayClientMessage(
@@ -25,6 +35,66 @@ public class ViewerUtil {
             return;
         }
 
+        UUID uuid = player.getUUID();
+        if (PENDING.containsKey(uuid)) {
+            // Already opening one this tick, the latest request wins
+            PENDING.put(uuid, new PendingOpen(player, record));
+            droppedOpens++;
+            return;
+        }
+
+        int tick = player.level().getServer().getTickCount();
+        Integer lastOpen = LAST_OPEN.get(uuid);
+        int cooldown = Waystones.configuration.getInstance().viewerOpenCooldown;
+        if ((lastOpen != null && tick - lastOpen < cooldown) || isAlreadyOpen(player, record)) {
+            droppedOpens++;
+            return;
+        }
+
+        PENDING.put(uuid, new PendingOpen(player, record));
+    }
+
+    public static void onServerTick(MinecraftServer server) {
+        if (PENDING.isEmpty())
+            return;
+
+        List<PendingOpen> opens = new ArrayList<>(PENDING.values());
+        PENDING.clear();
+        for (PendingOpen open : opens) {
+            ServerPlayer player = open.player();
+            if (player.isRemoved() || player.hasDisconnected())
+                continue;
+
+            LAST_OPEN.put(player.getUUID(), server.getTickCount());
+            openGuiNow(player, open.record());
+        }
+    }
+
+    public static void forget(UUID player) {
+        PENDING.remove(player);
+        LAST_OPEN.remove(player);
+    }
+
+    public static void clear() {
+        PENDING.clear();
+        LAST_OPEN.clear();
+    }
+
+    public static long getDroppedOpens() {
+        return droppedOpens;
+    }
+
+    public static int getPendingOpens() {
+        return PENDING.size();
+    }
+
+    // Reopening the viewer that's already on screen would only rebuild it
+    private static boolean isAlreadyOpen(ServerPlayer player, @Nullable WaystoneRecord record) {
+        return GuiHelpers.getCurrentGui(player) instanceof JavaViewerGui gui && gui.getWaystone() == record
+                && !gui.isSearch();
+    }
+
+    private static void openGuiNow(ServerPlayer player, @Nullable WaystoneRecord record) {
         if (FabricLoader.getInstance().isModLoaded(FloodgateCompat.MOD_ID)
                 && FloodgateCompat.openGuiOrFalse(player, record)) {
             return;
@@ -34,7 +104,14 @@ public class ViewerUtil {
     }
 
     public static void openJavaGui(ServerPlayer player, @Nullable WaystoneRecord record) {
-        JavaViewerGui gui = new JavaViewerGui(player, record);
+        openJavaGui(player, record, null);
+    }
+
+    public static void openJavaGui(ServerPlayer player, @Nullable WaystoneRecord record, @Nullable String query) {
+        long startNanos = System.nanoTime();
+        long startBytes = GuiMetrics.allocatedBytes();
+        JavaViewerGui gui = new JavaViewerGui(player, record, query);
         gui.open();
+        GuiMetrics.record(GuiMetrics.Type.OPEN, startNanos, startBytes, gui.getWaystoneCount());
     }
 }
@@ -0,0 +1,142 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.gui;
+
+import eu.pb4.sgui.api.elements.GuiElementBuilder;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import lol.sylvie.sswaystones.storage.WaystoneRecord;
+import net.minecraft.ChatFormatting;
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Pre-rendered item stacks for waystones in the Java viewer. Everything that
+ * only depends on the record (icon, name, coordinates, owner) is built once per
+ * record version and shared by all players, the few per-viewer variants
+ * (current location, favorite, XP cost) are cached on top of that.
+ */
+public class WaystoneElementCache {
+    private static final Map<WaystoneRecord, Entry> ENTRIES = new WeakHashMap<>();
+
+    private static class Entry {
+        private final int version;
+        private final ItemStack icon;
+        private final Component name;
+        private final Component coords;
+        private final @Nullable Component owner;
+        private final boolean glow;
+        private final int dimensionCount;
+        private final Int2ObjectOpenHashMap<ItemStack> variants = new Int2ObjectOpenHashMap<>();
+
+        private Entry(MinecraftServer server, WaystoneRecord record) {
+            this.version = record.getVersion();
+            this.icon = record.getIconOrHead(server);
+
+            // Dimension display logic
+            int dimensionCount = 1;
+            ChatFormatting dimensionColor = ChatFormatting.AQUA; // Default for overworld
+            String dimensionId = record.getWorldKey().identifier().toString();
+
+            if ("minecraft:the_nether".equals(dimensionId)) {
+                dimensionCount = 2;
+                dimensionColor = ChatFormatting.RED; // Nether
+            } else if ("minecraft:the_end".equals(dimensionId)) {
+                dimensionCount = 3;
+                dimensionColor = ChatFormatting.BLUE; // End
+            }
+
+            this.dimensionCount = dimensionCount;
+            this.name = record.getWaystoneText().copy().withStyle(dimensionColor);
+            this.glow = record.getAccessSettings().isServerOwned();
+
+            BlockPos pos = record.getPos();
+            this.coords = Component.nullToEmpty(String.format("%d, %d, %d", pos.getX(), pos.getY(), pos.getZ()));
+            this.owner = record.getAccessSettings().isServerOwned()
+                    ? null
+                    : Component.nullToEmpty(record.getOwnerName()).copy().withStyle(ChatFormatting.GRAY);
+        }
+
+        private ItemStack build(boolean isCurrentWaystone, boolean isFavorite, int xpCost) {
+            // Current waystone uses count 64 to distinguish
+            GuiElementBuilder element = new GuiElementBuilder(icon.copy())
+                    .setCount(isCurrentWaystone ? 64 : dimensionCount).setName(name);
+
+            if (glow) {
+                element.glow(true);
+            }
+
+            List<Component> loreLines = new ArrayList<>();
+
+            // Show "Current Location" indicator for current waystone
+            if (isCurrentWaystone) {
+                loreLines.add(Component.translatable("gui.sswaystones.current_location")
+                        .withStyle(ChatFormatting.LIGHT_PURPLE));
+            }
+
+            loreLines.add(coords);
+            if (owner != null) {
+                loreLines.add(owner);
+            }
+
+            // Add favorite indicator
+            if (isFavorite) {
+                loreLines.add(Component.literal("★ ").withStyle(ChatFormatting.GOLD)
+                        .append(Component.translatable("gui.sswaystones.favorite").withStyle(ChatFormatting.GOLD)));
+            }
+
+            // Add XP cost display (not for current waystone since you can't teleport to
+            // yourself)
+            if (!isCurrentWaystone && xpCost > 0) {
+                loreLines
+                        .add(Component.translatable("gui.sswaystones.xp_cost", xpCost).withStyle(ChatFormatting.GREEN));
+            }
+
+            loreLines.add(Component.empty());
+            if (!isCurrentWaystone) {
+                loreLines.add(Component.translatable("gui.sswaystones.click_to_teleport")
+                        .withStyle(ChatFormatting.DARK_GRAY));
+            }
+            loreLines.add(Component.translatable("gui.sswaystones.shift_click_to_toggle_favorite")
+                    .withStyle(ChatFormatting.DARK_GRAY));
+
+            element.setLore(loreLines);
+            return element.asStack();
+        }
+    }
+
+    /**
+     * Returns the shared display stack for a waystone. The stack must not be
+     * modified.
+     */
+    public static ItemStack getStack(MinecraftServer server, WaystoneRecord record, boolean isCurrentWaystone,
+            boolean isFavorite, int xpCost) {
+        Entry entry = ENTRIES.get(record);
+        int key = (Math.max(xpCost, 0) << 2) | (isFavorite ? 2 : 0) | (isCurrentWaystone ? 1 : 0);
+        ItemStack stack = entry == null ? null : entry.variants.get(key);
+        if (stack != null && entry.version == record.getVersion())
+            return stack;
+
+        // Only misses are measured, hits would drown them out
+        long startNanos = System.nanoTime();
+        long startBytes = GuiMetrics.allocatedBytes();
+        if (entry == null || entry.version != record.getVersion()) {
+            entry = new Entry(server, record);
+            ENTRIES.put(record, entry);
+        }
+
+        stack = entry.build(isCurrentWaystone, isFavorite, xpCost);
+        entry.variants.put(key, stack);
+        GuiMetrics.record(GuiMetrics.Type.ELEMENT, startNanos, startBytes, 1);
+
+        return stack;
+    }
+}
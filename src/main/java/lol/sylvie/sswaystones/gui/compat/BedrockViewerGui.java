@@ -4,12 +4,20 @@
 */
 package lol.sylvie.sswaystones.gui.compat;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.function.Consumer;
+import lol.sylvie.sswaystones.block.WaystoneBlockEntity;
+import lol.sylvie.sswaystones.gui.GuiMetrics;
+import lol.sylvie.sswaystones.storage.AccessCache;
 import lol.sylvie.sswaystones.storage.WaystoneRecord;
 import lol.sylvie.sswaystones.storage.WaystoneStorage;
 import lol.sylvie.sswaystones.util.NameGenerator;
 import me.lucko.fabric.api.permissions.v0.Permissions;
+import net.minecraft.ChatFormatting;
+import net.minecraft.network.chat.Component;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.scores.PlayerTeam;
 import org.geysermc.cumulus.component.ButtonComponent;
@@ -21,25 +29,114 @@ import org.jetbrains.annotations.Nullable;
 
 public class BedrockViewerGui {
     private static final String AVATAR_API = "https://api.tydiumcraft.net/v1/players/skin?uuid=%s&type=avatar";
+    private static final int PAGE_SIZE = 20;
+
+    private static final Map<UUID, Session> SESSIONS = new HashMap<>();
+    private static int nextSnapshotId = 0;
+
+    /**
+     * The list of waystones a player was shown, along with the forms built for
+     * it. Clicks are resolved against the snapshot they were made on, so a list
+     * that changed in the meantime can't make a button point somewhere else.
+     */
+    private static class Session {
+        private final int snapshotId = ++nextSnapshotId;
+        private final int accessStamp;
+        private final @Nullable WaystoneRecord waystone;
+        private final List<WaystoneRecord> accessible;
+        private final Page[] pages;
+
+        private Session(int accessStamp, @Nullable WaystoneRecord waystone, List<WaystoneRecord> accessible) {
+            this.accessStamp = accessStamp;
+            this.waystone = waystone;
+            this.accessible = accessible;
+            this.pages = new Page[Math.max(Math.ceilDiv(accessible.size(), PAGE_SIZE), 1)];
+        }
+    }
+
+    // A page stays valid as long as none of its waystones changed
+    private record Page(SimpleForm form, int[] versions, boolean settings) {
+        private boolean isValid(List<WaystoneRecord> records, boolean settings) {
+            if (this.settings != settings)
+                return false;
+
+            for (int i = 0; i < versions.length; i++) {
+                if (records.get(i).getVersion() != versions[i])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    public static void forget(UUID player) {
+        SESSIONS.remove(player);
+    }
+
+    public static void clear() {
+        SESSIONS.clear();
+    }
 
     public static void openGui(ServerPlayer player, @Nullable WaystoneRecord waystone, Consumer<Form> sendForm) {
-        SimpleForm form = BedrockViewerGui.getViewerForm(player, waystone, sendForm);
+        long startNanos = System.nanoTime();
+        long startBytes = GuiMetrics.allocatedBytes();
+        SimpleForm form = BedrockViewerGui.getViewerForm(player, waystone, 0, sendForm);
         sendForm.accept(form);
+        GuiMetrics.record(GuiMetrics.Type.OPEN, startNanos, startBytes,
+                SESSIONS.get(player.getUUID()).accessible.size());
+    }
+
+    private static Session getSession(ServerPlayer player, @Nullable WaystoneRecord waystone) {
+        int accessStamp = AccessCache.getStamp(player);
+        Session session = SESSIONS.get(player.getUUID());
+        if (session == null || session.accessStamp != accessStamp || session.waystone != waystone) {
+            WaystoneStorage storage = WaystoneStorage.getServerState(player.level().getServer());
+            session = new Session(accessStamp, waystone, storage.getAccessibleWaystones(player, waystone));
+            SESSIONS.put(player.getUUID(), session);
+        }
+
+        return session;
     }
 
-    public static SimpleForm getViewerForm(ServerPlayer player, @Nullable WaystoneRecord waystone,
+    public static SimpleForm getViewerForm(ServerPlayer player, @Nullable WaystoneRecord waystone, int pageIndex,
             Consumer<Form> sendForm) {
+        Session session = getSession(player, waystone);
+        pageIndex = Math.clamp(pageIndex, 0, session.pages.length - 1);
+
+        int from = pageIndex * PAGE_SIZE;
+        List<WaystoneRecord> records = session.accessible.subList(from,
+                Math.min(from + PAGE_SIZE, session.accessible.size()));
+        boolean showSettingsButton = waystone != null && waystone.canPlayerEdit(player);
+
+        Page page = session.pages[pageIndex];
+        if (page == null || !page.isValid(records, showSettingsButton)) {
+            page = buildPage(player, session, pageIndex, records, showSettingsButton, sendForm);
+            session.pages[pageIndex] = page;
+        }
+
+        return page.form();
+    }
+
+    private static Page buildPage(ServerPlayer player, Session session, int pageIndex, List<WaystoneRecord> records,
+            boolean showSettingsButton, Consumer<Form> sendForm) {
+        long startNanos = System.nanoTime();
+        long startBytes = GuiMetrics.allocatedBytes();
+        WaystoneRecord waystone = session.waystone;
         String title = "Waystones";
         if (waystone != null) {
             title = String.format("%s [%s]", waystone.getWaystoneName(), waystone.getOwnerName());
         }
 
+        int pageCount = session.pages.length;
+        if (pageCount > 1)
+            title = String.format("%s (%d/%d)", title, pageIndex + 1, pageCount);
+
         SimpleForm.Builder builder = SimpleForm.builder().title(title);
 
-        WaystoneStorage storage = WaystoneStorage.getServerState(player.level().getServer());
-        List<WaystoneRecord> accessible = storage.getAccessibleWaystones(player, waystone);
+        int[] versions = new int[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            WaystoneRecord record = records.get(i);
+            versions[i] = record.getVersion();
 
-        for (WaystoneRecord record : accessible) {
             boolean server = record.getAccessSettings().isServerOwned();
             FormImage.Type type = server ? FormImage.Type.PATH : FormImage.Type.URL;
             String image = server
@@ -50,25 +147,60 @@ public class BedrockViewerGui {
             builder.button(component);
         }
 
-        boolean showSettingsButton = waystone != null && waystone.canPlayerEdit(player);
+        boolean hasPrevious = pageIndex > 0;
+        boolean hasNext = pageIndex < pageCount - 1;
+        if (hasPrevious)
+            builder.button("Previous Page", FormImage.Type.PATH, "textures/ui/arrow_dark_left_stretch.png");
+        if (hasNext)
+            builder.button("Next Page", FormImage.Type.PATH, "textures/ui/arrow_dark_right_stretch.png");
         if (showSettingsButton)
             builder.button("Settings", FormImage.Type.PATH, "textures/gui/newgui/anvil-hammer.png");
 
+        int snapshotId = session.snapshotId;
         builder.validResultHandler(response -> {
             int selectedIndex = response.clickedButtonId();
-            if (selectedIndex < accessible.size()) {
-                WaystoneRecord selectedWaystone = accessible.get(selectedIndex);
+            if (selectedIndex < records.size()) {
+                WaystoneRecord selectedWaystone = records.get(selectedIndex);
+                if (isStale(player, snapshotId, selectedWaystone)) {
+                    player.sendSystemMessage(Component.translatable("error.sswaystones.stale_selection")
+                            .withStyle(ChatFormatting.RED));
+                    return;
+                }
+
                 selectedWaystone.handleTeleport(player);
                 return;
             }
 
-            if (selectedIndex == accessible.size() && showSettingsButton) {
+            selectedIndex -= records.size();
+            if (hasPrevious && selectedIndex-- == 0) {
+                sendForm.accept(getViewerForm(player, waystone, pageIndex - 1, sendForm));
+                return;
+            }
+
+            if (hasNext && selectedIndex-- == 0) {
+                sendForm.accept(getViewerForm(player, waystone, pageIndex + 1, sendForm));
+                return;
+            }
+
+            if (showSettingsButton && selectedIndex == 0 && waystone.canPlayerEdit(player)) {
                 CustomForm form = getSettingsForm(player, waystone);
                 sendForm.accept(form);
             }
         });
 
-        return builder.build();
+        Page page = new Page(builder.build(), versions, showSettingsButton);
+        GuiMetrics.record(GuiMetrics.Type.FORM, startNanos, startBytes, records.size());
+        return page;
+    }
+
+    private static boolean isStale(ServerPlayer player, int snapshotId, WaystoneRecord record) {
+        Session session = SESSIONS.get(player.getUUID());
+        if (session == null || session.snapshotId != snapshotId)
+            return true;
+
+        // The waystone may have been destroyed or locked since the form was sent
+        WaystoneStorage storage = WaystoneStorage.getServerState(player.level().getServer());
+        return storage.getWaystone(record.getHash()) != record || !AccessCache.canAccess(player, record);
     }
 
     public static CustomForm getSettingsForm(ServerPlayer player, WaystoneRecord waystone) {
@@ -121,7 +253,8 @@ public class BedrockViewerGui {
                 accessSettings.setServerOwned(server);
             }
 
-            waystone.setWaystoneName(name);
+            WaystoneStorage.getServerState(player.level().getServer()).renameWaystone(waystone, name);
+            WaystoneBlockEntity.refreshDisplay(player.level().getServer(), waystone);
         });
 
         return builder.build();
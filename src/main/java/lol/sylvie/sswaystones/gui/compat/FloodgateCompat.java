@@ -6,6 +6,8 @@ package lol.sylvie.sswaystones.gui.compat;
 
 import java.util.UUID;
 import lol.sylvie.sswaystones.storage.WaystoneRecord;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.minecraft.server.level.ServerPlayer;
 import org.geysermc.floodgate.api.FloodgateApi;
 import org.jetbrains.annotations.Nullable;
@@ -13,6 +15,12 @@ import org.jetbrains.annotations.Nullable;
 public class FloodgateCompat {
     public static final String MOD_ID = "floodgate";
 
+    public static void initialize() {
+        ServerPlayConnectionEvents.DISCONNECT
+                .register((handler, server) -> BedrockViewerGui.forget(handler.getPlayer().getUUID()));
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> BedrockViewerGui.clear());
+    }
+
     public static boolean openGuiOrFalse(ServerPlayer player, @Nullable WaystoneRecord record) {
         FloodgateApi api = FloodgateApi.getInstance();
         UUID uuid = player.getUUID();
@@ -0,0 +1,31 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.mixin;
+
+import lol.sylvie.sswaystones.teleport.LeashTracker;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.Leashable;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+// Every leashable, not just mobs, attaches and drops its leash through these
+@Mixin(Leashable.class)
+public interface LeashableMixin {
+    @Inject(method = "setLeashedTo(Lnet/minecraft/world/entity/Entity;Lnet/minecraft/world/entity/Entity;Z)V",
+            at = @At("TAIL"))
+    private static void sswaystones$trackLeash(Entity entity, Entity holder, boolean broadcast, CallbackInfo ci) {
+        if (!entity.level().isClientSide())
+            LeashTracker.onLeashed(entity, holder);
+    }
+
+    @Inject(method = "dropLeash(Lnet/minecraft/world/entity/Entity;ZZ)V", at = @At("TAIL"))
+    private static void sswaystones$untrackLeash(Entity entity, boolean broadcast, boolean dropItem,
+            CallbackInfo ci) {
+        if (!entity.level().isClientSide())
+            LeashTracker.onUnleashed(entity);
+    }
+}
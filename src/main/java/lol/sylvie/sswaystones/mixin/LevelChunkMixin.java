@@ -6,15 +6,19 @@ package lol.sylvie.sswaystones.mixin;
 
 import com.llamalad7.mixinextras.sugar.Local;
 import lol.sylvie.sswaystones.block.WaystoneBlock;
+import lol.sylvie.sswaystones.teleport.LandingCache;
 import net.minecraft.core.BlockPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.LevelChunk;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.ModifyVariable;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 @Mixin(LevelChunk.class)
 public class LevelChunkMixin {
@@ -27,4 +31,11 @@ public class LevelChunkMixin {
         Block block = level.getBlockState(pos).getBlock();
         return value || (block instanceof WaystoneBlock);
     }
+
+    @Inject(method = "setBlockState", at = @At("RETURN"))
+    private void sswaystones$invalidateLandings(CallbackInfoReturnable<BlockState> cir,
+            @Local(argsOnly = true) BlockPos pos) {
+        if (cir.getReturnValue() != null && !level.isClientSide())
+            LandingCache.onBlockChanged(level, pos);
+    }
 }
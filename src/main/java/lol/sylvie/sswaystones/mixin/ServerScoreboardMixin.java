@@ -0,0 +1,43 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.mixin;
+
+import lol.sylvie.sswaystones.storage.AccessCache;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.ServerScoreboard;
+import net.minecraft.world.scores.PlayerTeam;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+@Mixin(ServerScoreboard.class)
+public class ServerScoreboardMixin {
+    @Shadow
+    @Final
+    private MinecraftServer server;
+
+    @Inject(method = "addPlayerToTeam", at = @At("RETURN"))
+    private void sswaystones$onTeamJoined(String playerName, PlayerTeam team, CallbackInfoReturnable<Boolean> cir) {
+        if (cir.getReturnValue())
+            AccessCache.onTeamChanged(server, playerName);
+    }
+
+    @Inject(method = "removePlayerFromTeam", at = @At("TAIL"))
+    private void sswaystones$onTeamLeft(String playerName, PlayerTeam team, CallbackInfo ci) {
+        AccessCache.onTeamChanged(server, playerName);
+    }
+
+    // Members of a removed team are dropped without removePlayerFromTeam
+    @Inject(method = "onTeamRemoved", at = @At("TAIL"))
+    private void sswaystones$onTeamRemoved(PlayerTeam team, CallbackInfo ci) {
+        for (String playerName : team.getPlayers()) {
+            AccessCache.onTeamChanged(server, playerName);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.storage;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import lol.sylvie.sswaystones.gui.ViewerSnapshot;
+import lol.sylvie.sswaystones.gui.ViewerUtil;
+import me.lucko.fabric.api.permissions.v0.Permissions;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.permissions.PermissionLevel;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.scores.PlayerTeam;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Caches the set of waystones each online player may access, so access checks
+ * are a single set lookup. Waystones being created, removed or having their
+ * access settings changed update every cached set and count in place, anything
+ * else that can change access has to invalidate the cache, either for everyone
+ * or for a single player. Scoreboard teams are hooked, the showall permission
+ * has no event and is checked every second for players who turned showall on.
+ */
+public class AccessCache {
+    private static final int PERMISSION_CHECK_INTERVAL = 20;
+    private static final Map<UUID, Entry> ENTRIES = new HashMap<>();
+    private static int generation = 0; // Bumped when everyone's access may have changed
+    private static int revision = 0; // Bumped on any invalidation at all
+    private static int stamps = 0;
+
+    static class Entry {
+        private final UUID player;
+        final int generation;
+        int stamp;
+        private final String team;
+        private final boolean accessAll;
+        private final PlayerData data;
+
+        // All kept up to date as waystones and favorites change
+        final Set<String> accessible;
+        final Object2IntMap<ResourceKey<Level>> dimensionCounts;
+        int favoriteCount;
+
+        private Entry(UUID player, int generation, String team, boolean accessAll, PlayerData data,
+                Set<String> accessible, Object2IntMap<ResourceKey<Level>> dimensionCounts, int favoriteCount) {
+            this.player = player;
+            this.generation = generation;
+            this.stamp = ++stamps;
+            this.team = team;
+            this.accessAll = accessAll;
+            this.data = data;
+            this.accessible = accessible;
+            this.dimensionCounts = dimensionCounts;
+            this.favoriteCount = favoriteCount;
+        }
+
+        private boolean allows(WaystoneRecord record) {
+            return accessAll || data.discoveredWaystones.contains(record.getHash())
+                    || record.getAccessSettings().allows(team);
+        }
+
+        // Adds or removes a single waystone, returns whether anything changed
+        private boolean update(WaystoneRecord record, boolean access) {
+            String hash = record.getHash();
+            if (access == accessible.contains(hash))
+                return false;
+
+            int change = access ? 1 : -1;
+            if (access) {
+                accessible.add(hash);
+            } else {
+                accessible.remove(hash);
+            }
+            dimensionCounts.mergeInt(record.getWorldKey(), change, Integer::sum);
+            boolean favorite = data.isFavorite(hash);
+            if (favorite)
+                favoriteCount += change;
+
+            int previous = stamp;
+            stamp = ++stamps;
+            ViewerSnapshot.onAccessChanged(player, previous, stamp, record, access, favorite);
+            return true;
+        }
+    }
+
+    public static void invalidate() {
+        generation++;
+        revision++;
+    }
+
+    public static void invalidate(UUID player) {
+        ENTRIES.remove(player);
+        revision++;
+    }
+
+    public static void forget(UUID player) {
+        ENTRIES.remove(player);
+    }
+
+    public static void clear() {
+        ENTRIES.clear();
+        invalidate();
+    }
+
+    // A player joined or left a scoreboard team, or the team was removed
+    public static void onTeamChanged(MinecraftServer server, String playerName) {
+        ServerPlayer player = server.getPlayerList().getPlayerByName(playerName);
+        if (player != null)
+            invalidate(player.getUUID());
+    }
+
+    // Permissions can change without any event, recheck showall for the players using it
+    public static void onServerTick(MinecraftServer server) {
+        if (server.getTickCount() % PERMISSION_CHECK_INTERVAL != 0)
+            return;
+
+        for (UUID uuid : ViewerUtil.mayAccessAll) {
+            Entry entry = ENTRIES.get(uuid);
+            ServerPlayer player = server.getPlayerList().getPlayer(uuid);
+            if (entry != null && player != null && entry.accessAll != hasAccessAll(player))
+                invalidate(uuid);
+        }
+    }
+
+    public static void onWaystoneAdded(WaystoneRecord record) {
+        onAccessChanged(record);
+    }
+
+    public static void onWaystoneRemoved(WaystoneRecord record) {
+        for (Entry entry : ENTRIES.values()) {
+            entry.update(record, false);
+        }
+        revision++;
+    }
+
+    // The waystone's access settings changed, everyone's access to it is checked again
+    public static void onAccessChanged(WaystoneRecord record) {
+        for (Entry entry : ENTRIES.values()) {
+            entry.update(record, entry.allows(record));
+        }
+        revision++;
+    }
+
+    // Only has to look at the one waystone the player discovered
+    public static void onDiscovered(UUID player, WaystoneRecord record) {
+        Entry entry = ENTRIES.get(player);
+        if (entry != null && entry.update(record, true))
+            revision++;
+    }
+
+    public static int getRevision() {
+        return revision;
+    }
+
+    /**
+     * Returns a number that changes whenever the player's set of accessible
+     * waystones may have changed, for callers caching anything derived from it.
+     */
+    public static int getStamp(ServerPlayer player) {
+        return get(player).stamp;
+    }
+
+    // Whether the player's cached entry is still the one the stamp was taken from
+    public static boolean isCurrent(ServerPlayer player, int stamp) {
+        Entry entry = ENTRIES.get(player.getUUID());
+        PlayerTeam team = player.getTeam();
+        return entry != null && entry.generation == generation && entry.stamp == stamp
+                && entry.team.equals(team == null ? "" : team.getName());
+    }
+
+    public static boolean canAccess(ServerPlayer player, WaystoneRecord record) {
+        return get(player).accessible.contains(record.getHash());
+    }
+
+    public static int getAccessibleCount(ServerPlayer player) {
+        return get(player).accessible.size();
+    }
+
+    public static int getAccessibleCount(ServerPlayer player, ResourceKey<Level> dimension) {
+        return get(player).dimensionCounts.getInt(dimension);
+    }
+
+    public static int getFavoriteCount(ServerPlayer player) {
+        return get(player).favoriteCount;
+    }
+
+    // Called after a favorite was added or removed, only accessible favorites count
+    public static void onFavoriteToggled(ServerPlayer player, WaystoneRecord record, boolean favorite) {
+        Entry entry = ENTRIES.get(player.getUUID());
+        if (entry != null && entry.accessible.contains(record.getHash()))
+            entry.favoriteCount += favorite ? 1 : -1;
+    }
+
+    private static Entry get(ServerPlayer player) {
+        PlayerTeam team = player.getTeam();
+        String teamName = team == null ? "" : team.getName();
+
+        // Teams are hooked, but a change that got past the hooks is still caught here
+        Entry entry = ENTRIES.get(player.getUUID());
+        if (entry == null || entry.generation != generation || !entry.team.equals(teamName)) {
+            // Whatever was derived from the old entry, like hologram name watchers, is stale now
+            if (entry != null)
+                revision++;
+            entry = compute(player, teamName);
+            ENTRIES.put(player.getUUID(), entry);
+        }
+
+        return entry;
+    }
+
+    private static boolean hasAccessAll(ServerPlayer player) {
+        return ViewerUtil.mayAccessAll.contains(player.getUUID())
+                && Permissions.check(player, "sswaystones.showall", PermissionLevel.ADMINS);
+    }
+
+    private static Entry compute(ServerPlayer player, String teamName) {
+        WaystoneStorage storage = WaystoneStorage.getServerState(player.level().getServer());
+        return build(player.getUUID(), teamName, hasAccessAll(player), WaystoneStorage.getPlayerState(player),
+                storage.waystones.values());
+    }
+
+    // For tests, entries are normally computed from a player
+    static Entry track(UUID player, String teamName, boolean accessAll, PlayerData data,
+            Collection<WaystoneRecord> waystones) {
+        Entry entry = build(player, teamName, accessAll, data, waystones);
+        ENTRIES.put(player, entry);
+        return entry;
+    }
+
+    static @Nullable Entry find(UUID player) {
+        return ENTRIES.get(player);
+    }
+
+    private static Entry build(UUID player, String teamName, boolean accessAll, PlayerData data,
+            Collection<WaystoneRecord> waystones) {
+        Set<String> discovered = new HashSet<>(data.discoveredWaystones);
+        Set<String> accessible = new HashSet<>();
+        Object2IntMap<ResourceKey<Level>> dimensionCounts = new Object2IntOpenHashMap<>();
+        for (WaystoneRecord waystone : waystones) {
+            String hash = waystone.getHash();
+            if (accessAll || discovered.contains(hash) || waystone.getAccessSettings().allows(teamName)) {
+                accessible.add(hash);
+                dimensionCounts.mergeInt(waystone.getWorldKey(), 1, Integer::sum);
+            }
+        }
+
+        int favoriteCount = 0;
+        for (String hash : data.favoriteWaystones) {
+            if (accessible.contains(hash))
+                favoriteCount++;
+        }
+
+        return new Entry(player, generation, teamName, accessAll, data, accessible, dimensionCounts, favoriteCount);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.storage;
+
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Where a verifier pass can safely resume from. Hashes are visited in
+ * increasing order, but the ones waiting on a region read aren't done yet, so
+ * the cursor stays just before the lowest of those until its result is in.
+ */
+class VerifyCursor {
+    private final NavigableMap<String, String> pending = new TreeMap<>(); // Hash to the one visited before it
+    private String last;
+
+    VerifyCursor(String start) {
+        this.last = start;
+    }
+
+    void visit(String hash, boolean pending) {
+        if (pending)
+            this.pending.put(hash, last);
+        last = hash;
+    }
+
+    void done(String hash) {
+        pending.remove(hash);
+    }
+
+    // Every hash up to and including this one is done
+    String get() {
+        return pending.isEmpty() ? last : pending.firstEntry().getValue();
+    }
+}
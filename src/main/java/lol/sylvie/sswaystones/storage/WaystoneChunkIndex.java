@@ -0,0 +1,54 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.storage;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.*;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+
+/**
+ * Waystones grouped by the chunk they are in, so a chunk being loaded can look
+ * up its waystones without going through all of them.
+ */
+public class WaystoneChunkIndex {
+    private final Map<ResourceKey<Level>, Long2ObjectMap<List<WaystoneRecord>>> chunks = new HashMap<>();
+
+    public WaystoneChunkIndex(Collection<WaystoneRecord> records) {
+        for (WaystoneRecord record : records) {
+            add(record);
+        }
+    }
+
+    public void add(WaystoneRecord record) {
+        chunks.computeIfAbsent(record.getWorldKey(), key -> new Long2ObjectOpenHashMap<>())
+                .computeIfAbsent(ChunkPos.asLong(record.getPos()), key -> new ArrayList<>()).add(record);
+    }
+
+    public void remove(WaystoneRecord record) {
+        Long2ObjectMap<List<WaystoneRecord>> dimension = chunks.get(record.getWorldKey());
+        if (dimension == null)
+            return;
+
+        long chunk = ChunkPos.asLong(record.getPos());
+        List<WaystoneRecord> records = dimension.get(chunk);
+        if (records == null)
+            return;
+
+        records.remove(record);
+        if (records.isEmpty())
+            dimension.remove(chunk);
+    }
+
+    public List<WaystoneRecord> get(ResourceKey<Level> dimension, ChunkPos pos) {
+        Long2ObjectMap<List<WaystoneRecord>> records = chunks.get(dimension);
+        if (records == null)
+            return List.of();
+
+        return records.getOrDefault(pos.toLong(), List.of());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.storage;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Trigram index over waystone names, used by the viewer's search. Names are
+ * padded with spaces before being split up, and the first letter of every word
+ * is indexed on its own too, so queries of one or two characters can still be
+ * answered through the index as word prefixes.
+ */
+public class WaystoneNameIndex {
+    private static final int GRAM = 3;
+
+    private final Map<String, Set<WaystoneRecord>> grams = new HashMap<>();
+    private final Map<WaystoneRecord, String> indexedNames = new IdentityHashMap<>();
+
+    public WaystoneNameIndex(Collection<WaystoneRecord> records) {
+        for (WaystoneRecord record : records) {
+            add(record);
+        }
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> getGrams(String padded) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + GRAM <= padded.length(); i++) {
+            result.add(padded.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    private static Set<String> getNameGrams(String name) {
+        Set<String> result = getGrams("  " + name);
+        for (int i = 1; i < name.length(); i++) {
+            if (name.charAt(i - 1) == ' ' && name.charAt(i) != ' ')
+                result.add("  " + name.charAt(i));
+        }
+        return result;
+    }
+
+    public void add(WaystoneRecord record) {
+        String name = normalize(record.getWaystoneName());
+        indexedNames.put(record, name);
+        for (String gram : getNameGrams(name)) {
+            grams.computeIfAbsent(gram, key -> new HashSet<>()).add(record);
+        }
+    }
+
+    public void remove(WaystoneRecord record) {
+        String name = indexedNames.remove(record);
+        if (name == null)
+            return;
+
+        for (String gram : getNameGrams(name)) {
+            Set<WaystoneRecord> records = grams.get(gram);
+            if (records == null)
+                continue;
+            records.remove(record);
+            if (records.isEmpty())
+                grams.remove(gram);
+        }
+    }
+
+    public void update(WaystoneRecord record) {
+        remove(record);
+        add(record);
+    }
+
+    /**
+     * Finds waystones whose name matches the query, best matches first. Exact
+     * matches rank above prefixes, prefixes above substrings, and substrings above
+     * names that merely share most of their trigrams with the query.
+     */
+    public List<WaystoneRecord> search(String query, Predicate<WaystoneRecord> filter) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty())
+            return List.of();
+
+        // Too short to have trigrams of its own, look it up as a word prefix
+        Set<String> queryGrams = normalized.length() < GRAM
+                ? Set.of((normalized.length() == 1 ? "  " : " ") + normalized)
+                : getGrams(normalized);
+
+        Object2IntMap<WaystoneRecord> overlap = new Object2IntOpenHashMap<>();
+        for (String gram : queryGrams) {
+            Set<WaystoneRecord> records = grams.get(gram);
+            if (records == null)
+                continue;
+            for (WaystoneRecord record : records) {
+                overlap.mergeInt(record, 1, Integer::sum);
+            }
+        }
+
+        // Fuzzy matches need to share at least half of the query's trigrams
+        int minimumOverlap = Math.max((queryGrams.size() + 1) / 2, 1);
+        Object2IntMap<WaystoneRecord> scores = new Object2IntOpenHashMap<>();
+        for (Object2IntMap.Entry<WaystoneRecord> entry : overlap.object2IntEntrySet()) {
+            WaystoneRecord record = entry.getKey();
+            String name = indexedNames.get(record);
+
+            int score;
+            if (name.equals(normalized)) {
+                score = 4000;
+            } else if (name.startsWith(normalized)) {
+                score = 3000;
+            } else if (name.contains(normalized)) {
+                score = 2000;
+            } else if (entry.getIntValue() >= minimumOverlap) {
+                score = 1000;
+            } else {
+                continue;
+            }
+
+            if (!filter.test(record))
+                continue;
+
+            // Closer overlaps and shorter names first
+            scores.put(record, score + entry.getIntValue() * 10 - name.length());
+        }
+
+        List<WaystoneRecord> results = new ArrayList<>(scores.keySet());
+        results.sort(Comparator.comparingInt((WaystoneRecord record) -> -scores.getInt(record))
+                .thenComparing(WaystoneRecord::getWaystoneName));
+        return results;
+    }
+}
@@ -10,21 +10,23 @@ import com.mojang.authlib.minecraft.MinecraftSessionService;
 import com.mojang.authlib.yggdrasil.ProfileResult;
 import com.mojang.serialization.Codec;
 import com.mojang.serialization.codecs.RecordCodecBuilder;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import lol.sylvie.sswaystones.Waystones;
 import lol.sylvie.sswaystones.block.WaystoneBlock;
-import lol.sylvie.sswaystones.config.Configuration;
-import lol.sylvie.sswaystones.gui.ViewerUtil;
+import lol.sylvie.sswaystones.config.XpCostTable;
+import lol.sylvie.sswaystones.gui.ViewerSnapshot;
+import lol.sylvie.sswaystones.teleport.LeashTracker;
+import lol.sylvie.sswaystones.teleport.TeleportScheduler;
 import lol.sylvie.sswaystones.util.HashUtil;
 import me.lucko.fabric.api.permissions.v0.Permissions;
 import net.minecraft.ChatFormatting;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.UUIDUtil;
-import net.minecraft.core.Vec3i;
 import net.minecraft.core.component.DataComponents;
 import net.minecraft.core.particles.ParticleTypes;
 import net.minecraft.core.particles.PowerParticleOption;
@@ -34,22 +36,16 @@ import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
-import net.minecraft.server.permissions.PermissionLevel;
 import net.minecraft.sounds.SoundEvents;
 import net.minecraft.sounds.SoundSource;
 import net.minecraft.world.entity.Entity;
-import net.minecraft.world.entity.Leashable;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.item.Items;
 import net.minecraft.world.item.component.ResolvableProfile;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.block.Blocks;
-import net.minecraft.world.level.block.state.BlockState;
-import net.minecraft.world.phys.AABB;
 import net.minecraft.world.phys.Vec3;
-import net.minecraft.world.scores.PlayerTeam;
 import org.jetbrains.annotations.Nullable;
 
 public final class WaystoneRecord {
@@ -60,6 +56,8 @@ public final class WaystoneRecord {
     private final ResourceKey<Level> world;
     private final AccessSettings accessSettings;
     private Item icon;
+    private int version; // Bumped on every change that affects how the waystone is displayed
+    private @Nullable String hash;
 
     public static final Codec<WaystoneRecord> CODEC = RecordCodecBuilder.create(instance -> instance
             .group(UUIDUtil.AUTHLIB_CODEC.fieldOf("waystone_owner").forGetter(WaystoneRecord::getOwnerUUID),
@@ -90,6 +88,7 @@ public final class WaystoneRecord {
         this.pos = pos;
         this.world = world;
         this.accessSettings = accessSettings;
+        this.accessSettings.record = this;
         this.icon = icon == null ? Items.PLAYER_HEAD : icon;
     }
 
@@ -104,84 +103,85 @@ public final class WaystoneRecord {
             return;
         }
 
-        Configuration.Instance config = Waystones.configuration.getInstance();
+        TeleportScheduler.submit(player, this);
+    }
+
+    // Teleport stages, run in order by the TeleportScheduler
 
-        // Experience cost
+    // Whether the player may start the teleport at all
+    public boolean validateTeleport(ServerPlayer player) {
+        // Checked again once the teleport happens, but don't make anyone wait for
+        // nothing
         int requiredXp = getXpCost(player);
-        if (requiredXp > 0) {
-            if (player.experienceLevel < requiredXp) {
-                player.displayClientMessage(
-                        Component.translatable("error.sswaystones.not_enough_xp", requiredXp - player.experienceLevel)
-                                .withStyle(ChatFormatting.RED),
-                        true);
-                return;
-            } else {
-                player.giveExperienceLevels(Math.min(-requiredXp, 0)); // Stop negative values from adding xp
-            }
+        if (requiredXp > 0 && player.experienceLevel < requiredXp) {
+            player.displayClientMessage(
+                    Component.translatable("error.sswaystones.not_enough_xp", requiredXp - player.experienceLevel)
+                            .withStyle(ChatFormatting.RED),
+                    true);
+            return false;
         }
 
+        return true;
+    }
+
+    // Returns the world to teleport to, or null if the teleport can't happen
+    public @Nullable ServerLevel findTargetWorld(MinecraftServer server, Collection<ServerPlayer> players) {
         // This may happen if someone has a waystone in a dimension from a mod that is
         // no longer present
         ServerLevel targetWorld = this.getWorld(server);
         if (targetWorld == null) {
-            player.sendSystemMessage(
-                    Component.translatable("error.sswaystones.no_dimension").withStyle(ChatFormatting.RED));
-            return;
-        }
-
-        // Remove invalid waystones
-        BlockPos target = this.getPos();
-        if (!(targetWorld.getBlockState(target).getBlock() instanceof WaystoneBlock) && config.removeInvalidWaystones) {
-            WaystoneStorage.getServerState(server).destroyWaystone(this);
-            player.sendSystemMessage(
-                    Component.translatable("error.sswaystones.invalid_waystone").withStyle(ChatFormatting.RED));
-            return;
+            for (ServerPlayer player : players) {
+                player.sendSystemMessage(
+                        Component.translatable("error.sswaystones.no_dimension").withStyle(ChatFormatting.RED));
+            }
         }
 
-        if (config.safeTeleport) {
-            // Remove any blocks trying to suffocate the player
-            BlockPos head = target.offset(0, 1, 0);
-            BlockState headState = targetWorld.getBlockState(head);
-            if (!headState.getCollisionShape(targetWorld, head).isEmpty()) {
-                if (headState.getDestroySpeed(targetWorld, head) != -1) {
-                    server.executeIfPossible(() -> targetWorld.destroyBlock(head, true));
-                }
-            }
+        return targetWorld;
+    }
 
-            // Make sure there is a platform beneath the waystone
-            for (int x = -1; x <= 1; x++) {
-                for (int z = -1; z <= 1; z++) {
-                    BlockPos ground = this.pos.offset(x, -1, z);
-                    if (targetWorld.getBlockState(ground).isAir()) {
-                        targetWorld.setBlockAndUpdate(ground, Blocks.COBBLESTONE.defaultBlockState());
-                    }
-                }
+    // Makes sure the waystone is still there. Orphans are usually caught as their
+    // chunk loads, the block check only matters for chunks that never unloaded and
+    // is cheap since the scheduler has loaded the destination by now
+    public boolean checkDestination(ServerLevel targetWorld, Collection<ServerPlayer> players) {
+        WaystoneStorage storage = WaystoneStorage.getServerState(targetWorld.getServer());
+        boolean missing = !(targetWorld.getBlockState(this.getPos()).getBlock() instanceof WaystoneBlock)
+                && Waystones.configuration.getInstance().removeInvalidWaystones;
+        if (missing)
+            storage.destroyWaystone(this);
+
+        if (missing || storage.getWaystone(this.getHash()) != this) {
+            for (ServerPlayer player : players) {
+                player.sendSystemMessage(
+                        Component.translatable("error.sswaystones.invalid_waystone").withStyle(ChatFormatting.RED));
             }
+            return false;
         }
 
-        // Search for a suitable teleport location
-        List<Vec3i> positionChecks = List.of(new Vec3i(-1, -1, 0), new Vec3i(1, -1, 0), new Vec3i(0, -1, -1),
-                new Vec3i(0, -1, 1), new Vec3i(-1, -1, -1), new Vec3i(1, -1, 1), new Vec3i(1, -1, -1),
-                new Vec3i(-1, -1, 1));
-
-        for (Vec3i checkPos : positionChecks) {
-            BlockPos ground = target.offset(checkPos);
-            BlockPos feet = ground.offset(0, 1, 0);
-            BlockPos head = feet.offset(0, 1, 0);
-
-            if (!targetWorld.getBlockState(ground).getCollisionShape(targetWorld, ground).isEmpty()
-                    && targetWorld.getBlockState(feet).getCollisionShape(targetWorld, feet).isEmpty()
-                    && targetWorld.getBlockState(head).getCollisionShape(targetWorld, head).isEmpty()) {
-                target = feet;
-                break;
+        return true;
+    }
+
+    // Takes the experience cost, false if the player can't afford it anymore
+    public boolean chargeTeleport(ServerPlayer player) {
+        int requiredXp = getXpCost(player);
+        if (requiredXp > 0) {
+            if (player.experienceLevel < requiredXp) {
+                player.displayClientMessage(
+                        Component.translatable("error.sswaystones.not_enough_xp", requiredXp - player.experienceLevel)
+                                .withStyle(ChatFormatting.RED),
+                        true);
+                return false;
+            } else {
+                player.giveExperienceLevels(Math.min(-requiredXp, 0)); // Stop negative values from adding xp
             }
         }
 
-        // Teleport!
-        Vec3 center = target.getBottomCenter();
+        return true;
+    }
 
-        // Collect all associated entities (passengers, vehicles, leashed mobs)
-        Set<Entity> entitiesToTeleport = collectAssociatedEntities(player);
+    // Moves the player and everything collected to come with them
+    public void moveTeleport(ServerPlayer player, ServerLevel targetWorld, BlockPos target,
+            List<Entity> entitiesToTeleport) {
+        Vec3 center = target.getBottomCenter();
 
         // Teleport the player first
         player.teleportTo(targetWorld, center.x(), center.y(), center.z(), Set.of(), player.getYRot(), player.getXRot(),
@@ -194,70 +194,38 @@ public final class WaystoneRecord {
                         entity.getXRot(), false);
             }
         }
+    }
 
+    public void playTeleportEffects(ServerLevel targetWorld, BlockPos target) {
+        Vec3 center = target.getBottomCenter();
         targetWorld.playSound(null, target, SoundEvents.ENDERMAN_TELEPORT, SoundSource.PLAYERS, 1f, 1f);
         targetWorld.sendParticles(PowerParticleOption.create(ParticleTypes.DRAGON_BREATH, 1f), center.x(),
                 center.y() + 1f, center.z(), 16, 0.5d, 0.5d, 0.5d, 0.1d);
     }
 
     /**
-     * Recursively collects all entities associated with the player: - Vehicles
-     * (entities the player is riding) - Passengers (entities riding the player or
-     * player's vehicle) - Leashed mobs (entities on a leash held by the player)
+     * Collects all entities associated with the player: the vehicle they are
+     * riding along with everyone on it, and whatever they hold on a leash with its
+     * passengers. The lists involved are tiny, so a list beats a set here.
      */
-    private Set<Entity> collectAssociatedEntities(ServerPlayer player) {
-        Set<Entity> entities = new HashSet<>();
-        collectEntitiesRecursively(player, entities);
+    public List<Entity> collectAssociatedEntities(ServerPlayer player) {
+        List<Entity> entities = new ArrayList<>();
+        collectWithPassengers(player.getRootVehicle(), entities);
 
-        // Collect leashed entities
-        collectLeashedEntities(player, entities);
+        for (Entity leashed : LeashTracker.getLeashedTo(player)) {
+            collectWithPassengers(leashed, entities);
+        }
 
         return entities;
     }
 
-    private void collectEntitiesRecursively(Entity entity, Set<Entity> collected) {
-        if (entity == null || collected.contains(entity)) {
+    private void collectWithPassengers(Entity entity, List<Entity> collected) {
+        if (collected.contains(entity))
             return;
-        }
-        collected.add(entity);
-
-        // Collect vehicle (what this entity is riding)
-        Entity vehicle = entity.getVehicle();
-        if (vehicle != null) {
-            collectEntitiesRecursively(vehicle, collected);
-        }
 
-        // Collect all passengers (entities riding this entity)
+        collected.add(entity);
         for (Entity passenger : entity.getPassengers()) {
-            collectEntitiesRecursively(passenger, collected);
-        }
-
-        // Get the root vehicle and collect all its passengers
-        Entity rootVehicle = entity.getRootVehicle();
-        if (rootVehicle != null && rootVehicle != entity) {
-            collectEntitiesRecursively(rootVehicle, collected);
-        }
-    }
-
-    private void collectLeashedEntities(ServerPlayer player, Set<Entity> collected) {
-        // Search for entities leashed to the player within a reasonable radius
-        Level level = player.level();
-        AABB searchBox = player.getBoundingBox().inflate(10.0); // Leash max length is about 10 blocks
-
-        List<Entity> nearbyEntities = level.getEntities(player, searchBox);
-        for (Entity entity : nearbyEntities) {
-            if (entity instanceof Leashable leashable) {
-                Entity leashHolder = leashable.getLeashHolder();
-                if (leashHolder == player) {
-                    if (!collected.contains(entity)) {
-                        collected.add(entity);
-                        // Also collect passengers of leashed entities
-                        for (Entity passenger : entity.getPassengers()) {
-                            collectEntitiesRecursively(passenger, collected);
-                        }
-                    }
-                }
-            }
+            collectWithPassengers(passenger, collected);
         }
     }
 
@@ -266,10 +234,9 @@ public final class WaystoneRecord {
     }
 
     public int getXpCost(ServerPlayer player) {
-        Configuration.Instance config = Waystones.configuration.getInstance();
         if (player.isCreative())
             return 0;
-        return player.level().dimension().equals(this.getWorldKey()) ? config.xpCost : config.crossDimensionXpCost;
+        return XpCostTable.getCost(player.level().dimension(), this.getWorldKey());
     }
 
     public ItemStack getIconOrHead(@Nullable MinecraftServer server) {
@@ -304,6 +271,7 @@ public final class WaystoneRecord {
     public void setOwner(Player player) {
         this.owner = player.getUUID();
         this.ownerName = player.getGameProfile().name();
+        this.markChanged();
     }
 
     public String getWaystoneName() {
@@ -313,6 +281,7 @@ public final class WaystoneRecord {
     public void setWaystoneName(String waystoneName) {
         waystoneName = waystoneName.substring(0, Math.min(waystoneName.length(), 32));
         this.waystoneName = waystoneName;
+        this.markChanged();
     }
 
     public BlockPos getPos() {
@@ -333,12 +302,27 @@ public final class WaystoneRecord {
 
     public void setIcon(Item icon) {
         this.icon = icon;
+        this.markChanged();
+    }
+
+    /**
+     * A counter that changes whenever the name, owner, icon or access settings of
+     * this waystone change. Used by displays to skip rebuilding unchanged state.
+     */
+    public int getVersion() {
+        return version + accessSettings.version;
+    }
+
+    public void markChanged() {
+        this.version++;
     }
 
     public static class AccessSettings {
         private boolean global; // Blanket flag, allows all players to access
         private boolean server; // Hides the actual owner and makes it unbreakable
         private String team; // Scoreboard team
+        private int version;
+        private WaystoneRecord record; // Set by the record that owns these settings
 
         public static final Codec<AccessSettings> CODEC = RecordCodecBuilder.create(instance -> instance
                 .group(Codec.BOOL.fieldOf("global").forGetter(AccessSettings::isGlobal),
@@ -352,23 +336,16 @@ public final class WaystoneRecord {
             this.team = team;
         }
 
-        public boolean canPlayerAccess(WaystoneRecord parent, ServerPlayer player) {
-            if (ViewerUtil.mayAccessAll.contains(player.getUUID())
-                    && Permissions.check(player, "sswaystones.showall", PermissionLevel.ADMINS))
-                return true;
-
-            PlayerData data = WaystoneStorage.getPlayerState(player);
-            if (data.discoveredWaystones.contains(parent.getHash()))
-                return true;
-
+        /**
+         * Whether a player on the team (empty for no team) may access the waystone
+         * without having discovered it. Per-player access goes through the
+         * {@link AccessCache}.
+         */
+        public boolean allows(String teamName) {
             if (this.isGlobal() || this.isServerOwned())
                 return true;
 
-            PlayerTeam team = player.getTeam();
-            if (team != null && team.getName().equals(this.team))
-                return true;
-
-            return false;
+            return !teamName.isEmpty() && teamName.equals(this.team);
         }
 
         public boolean isGlobal() {
@@ -377,6 +354,8 @@ public final class WaystoneRecord {
 
         public void setGlobal(boolean global) {
             this.global = global;
+            this.version++;
+            AccessCache.onAccessChanged(record);
         }
 
         public boolean isServerOwned() {
@@ -385,6 +364,10 @@ public final class WaystoneRecord {
 
         public void setServerOwned(boolean server) {
             this.server = server;
+            this.version++;
+            // Server owned waystones sort first, move it before anything is inserted next to it
+            ViewerSnapshot.onReordered(record);
+            AccessCache.onAccessChanged(record);
         }
 
         public String getTeam() {
@@ -393,6 +376,8 @@ public final class WaystoneRecord {
 
         public void setTeam(String team) {
             this.team = team;
+            this.version++;
+            AccessCache.onAccessChanged(record);
         }
 
         public boolean hasTeam() {
@@ -405,7 +390,10 @@ public final class WaystoneRecord {
     }
 
     public String getHash() {
-        return HashUtil.getHash(this);
+        // Position and world never change, so neither does the hash
+        if (hash == null)
+            hash = HashUtil.getHash(this);
+        return hash;
     }
 
     public Component getWaystoneText() {
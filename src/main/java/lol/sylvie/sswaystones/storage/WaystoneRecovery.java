@@ -0,0 +1,318 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import lol.sylvie.sswaystones.Waystones;
+import lol.sylvie.sswaystones.block.WaystoneBlock;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.UUIDUtil;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.Items;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.storage.RegionFileVersion;
+import net.minecraft.world.level.dimension.DimensionType;
+import net.minecraft.world.level.storage.LevelResource;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Rebuilds lost waystone records from the world itself. Region files are read
+ * straight from disk on a pool of worker threads, one file at a time per
+ * thread, so nothing is loaded into the running server. Every waystone block
+ * entity found is handed back to the server thread, which restores the ones
+ * that have no record yet a few at a time. Block entities bound to a record
+ * remember its owner, name, access and icon. Unbound ones, saved before
+ * bindings existed or never claimed, come back private with no known owner and
+ * a generated name, players who had discovered them keep their access.
+ * <p>
+ * Region files on a running server can be behind the world, so a waystone in
+ * a loaded chunk is only restored if its block is still there. With
+ * {@code recover_on_start} on, the scan runs once the server has started but
+ * before its first tick, so no player has joined yet and only the chunks
+ * loaded at startup can differ from disk.
+ */
+public class WaystoneRecovery {
+    private static final int SECTOR_BYTES = 4096;
+    private static final int CHUNKS_PER_REGION = 1024;
+    private static final int RESTORES_PER_TICK = 64;
+    private static final int EXTERNAL_FLAG = 128; // Set on chunks stored in their own .mcc file
+    private static final int START_PROGRESS_SECONDS = 10;
+    private static final int START_TIMEOUT_SECONDS = 600;
+
+    private static final Queue<Found> FOUND = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger regionsScanned = new AtomicInteger();
+    private static final AtomicInteger chunksRead = new AtomicInteger();
+    private static final AtomicInteger external = new AtomicInteger();
+    private static final AtomicInteger errors = new AtomicInteger();
+
+    private static ExecutorService executor = null;
+    private static int regionsTotal = 0;
+    private static int found = 0;
+    private static int gone = 0;
+    private static int restored = 0;
+
+    private record Found(ResourceKey<Level> dimension, BlockPos pos, @Nullable UUID owner, String ownerName,
+            String name, WaystoneRecord.AccessSettings accessSettings, Item icon) {
+    }
+
+    // Returns false if a scan is already running
+    public static boolean start(MinecraftServer server) {
+        if (isRunning())
+            return false;
+
+        regionsScanned.set(0);
+        chunksRead.set(0);
+        external.set(0);
+        errors.set(0);
+        regionsTotal = 0;
+        found = 0;
+        gone = 0;
+        restored = 0;
+
+        int threads = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Waystone Recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Path root = server.getWorldPath(LevelResource.ROOT);
+        for (ServerLevel world : server.getAllLevels()) {
+            ResourceKey<Level> dimension = world.dimension();
+            Path regions = DimensionType.getStorageFolder(dimension, root).resolve("region");
+            if (!Files.isDirectory(regions))
+                continue;
+
+            try (Stream<Path> files = Files.list(regions)) {
+                for (Path file : files.filter(path -> path.toString().endsWith(".mca")).toList()) {
+                    regionsTotal++;
+                    executor.execute(() -> {
+                        scanRegion(dimension, file);
+                        regionsScanned.incrementAndGet();
+                    });
+                }
+            } catch (IOException e) {
+                Waystones.LOGGER.warn("Couldn't list region files in {}", regions, e);
+                errors.incrementAndGet();
+            }
+        }
+
+        executor.shutdown();
+        Waystones.LOGGER.info("Scanning {} region files for waystones on {} threads", regionsTotal, threads);
+        return true;
+    }
+
+    /**
+     * Runs a scan before the first tick if {@code recover_on_start} is on and
+     * turns the option off again. Waits for the region files to be read, logging
+     * progress, but hands a scan that takes too long over to the server ticks.
+     */
+    public static void onServerStarted(MinecraftServer server) {
+        if (!Waystones.configuration.getInstance().recoverOnStart || !start(server))
+            return;
+
+        try {
+            int waited = 0;
+            while (!executor.awaitTermination(START_PROGRESS_SECONDS, TimeUnit.SECONDS)) {
+                waited += START_PROGRESS_SECONDS;
+                if (waited >= START_TIMEOUT_SECONDS) {
+                    Waystones.LOGGER.warn("Waystone recovery is taking over {} seconds, finishing it in the background",
+                            START_TIMEOUT_SECONDS);
+                    break;
+                }
+
+                Waystones.LOGGER.info("Scanned {} of {} region files for waystones", regionsScanned.get(),
+                        regionsTotal);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        restore(server, Integer.MAX_VALUE);
+        Waystones.configuration.getInstance().recoverOnStart = false;
+        Waystones.configuration.save();
+    }
+
+    public static void onServerTick(MinecraftServer server) {
+        if (executor != null)
+            restore(server, RESTORES_PER_TICK);
+    }
+
+    private static void restore(MinecraftServer server, int limit) {
+        WaystoneStorage storage = WaystoneStorage.getServerState(server);
+        Found entry;
+        for (int i = 0; i < limit && (entry = FOUND.poll()) != null; i++) {
+            found++;
+            if (!isStillThere(server, entry)) {
+                gone++;
+                continue;
+            }
+
+            if (storage.restoreWaystone(entry.dimension(), entry.pos(), entry.owner(), entry.ownerName(),
+                    entry.name(), entry.accessSettings(), entry.icon()) != null)
+                restored++;
+        }
+
+        if (executor.isTerminated() && FOUND.isEmpty()) {
+            Waystones.LOGGER.info("Scanned {} chunks for waystones, found {}, {} already gone and restored {}",
+                    chunksRead.get(), found, gone, restored);
+            if (external.get() > 0)
+                Waystones.LOGGER.warn("Skipped {} chunks stored in external files", external.get());
+            executor = null;
+        }
+    }
+
+    // The region file may be older than a loaded chunk, which knows better
+    private static boolean isStillThere(MinecraftServer server, Found entry) {
+        ServerLevel world = server.getLevel(entry.dimension());
+        if (world == null)
+            return false;
+
+        BlockPos pos = entry.pos();
+        LevelChunk chunk = world.getChunkSource().getChunkNow(SectionPos.blockToSectionCoord(pos.getX()),
+                SectionPos.blockToSectionCoord(pos.getZ()));
+        return chunk == null || chunk.getBlockState(pos).getBlock() instanceof WaystoneBlock;
+    }
+
+    // Runs on a worker thread, must not touch anything but the file
+    private static void scanRegion(ResourceKey<Level> dimension, Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SECTOR_BYTES);
+            if (channel.read(header, 0) < SECTOR_BYTES)
+                return;
+
+            for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+                int location = header.getInt(i * 4);
+                if (location == 0)
+                    continue;
+
+                try {
+                    CompoundTag chunk = readChunk(channel, location);
+                    if (chunk == null)
+                        continue;
+
+                    chunksRead.incrementAndGet();
+                    ListTag blockEntities = chunk.getListOrEmpty("block_entities");
+                    for (int j = 0; j < blockEntities.size(); j++) {
+                        CompoundTag blockEntity = blockEntities.getCompoundOrEmpty(j);
+                        if (!WaystoneVerifier.BLOCK_ENTITY_ID.equals(blockEntity.getStringOr("id", "")))
+                            continue;
+
+                        BlockPos pos = new BlockPos(blockEntity.getIntOr("x", 0), blockEntity.getIntOr("y", 0),
+                                blockEntity.getIntOr("z", 0));
+                        // Anything the binding doesn't say is kept private
+                        WaystoneRecord.AccessSettings accessSettings = new WaystoneRecord.AccessSettings(
+                                blockEntity.getBooleanOr("global", false), blockEntity.getBooleanOr("server", false),
+                                blockEntity.getStringOr("team", ""));
+                        FOUND.add(new Found(dimension, pos, blockEntity.read("owner", UUIDUtil.CODEC).orElse(null),
+                                blockEntity.getStringOr("owner_name", ""), blockEntity.getStringOr("name", ""),
+                                accessSettings, blockEntity.read("icon", BuiltInRegistries.ITEM.byNameCodec())
+                                        .orElse(Items.PLAYER_HEAD)));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // The server may be writing to this chunk right now, skip it
+                    errors.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            Waystones.LOGGER.warn("Couldn't read region file {}", file, e);
+            errors.incrementAndGet();
+        }
+    }
+
+    // Same layout as RegionFile, without opening the file for writing like it does
+    private static CompoundTag readChunk(FileChannel channel, int location) throws IOException {
+        long offset = (long) (location >>> 8) * SECTOR_BYTES;
+        int sectors = location & 0xFF;
+        ByteBuffer data = ByteBuffer.allocate(sectors * SECTOR_BYTES);
+        channel.read(data, offset);
+        data.flip();
+        if (data.remaining() < 5)
+            return null;
+
+        int length = data.getInt();
+        byte type = data.get();
+        // Chunks too big for the region are stored in their own file, waystones are rarely in those
+        if ((type & EXTERNAL_FLAG) != 0) {
+            external.incrementAndGet();
+            return null;
+        }
+
+        RegionFileVersion version = RegionFileVersion.fromId(type);
+        if (version == null || length <= 1 || length - 1 > data.remaining())
+            return null;
+
+        InputStream stream = new ByteArrayInputStream(data.array(), data.position(), length - 1);
+        try (DataInputStream input = new DataInputStream(version.wrap(stream))) {
+            return NbtIo.read(input, NbtAccounter.unlimitedHeap());
+        }
+    }
+
+    public static boolean isRunning() {
+        return executor != null;
+    }
+
+    public static int getRegionsScanned() {
+        return regionsScanned.get();
+    }
+
+    public static int getRegionsTotal() {
+        return regionsTotal;
+    }
+
+    public static int getChunksRead() {
+        return chunksRead.get();
+    }
+
+    public static int getExternal() {
+        return external.get();
+    }
+
+    public static int getErrors() {
+        return errors.get();
+    }
+
+    public static int getFound() {
+        return found;
+    }
+
+    public static int getGone() {
+        return gone;
+    }
+
+    public static int getRestored() {
+        return restored;
+    }
+
+    public static void clear() {
+        if (executor != null)
+            executor.shutdownNow();
+
+        executor = null;
+        FOUND.clear();
+    }
+}
@@ -8,39 +8,64 @@ import com.mojang.serialization.Codec;
 import com.mojang.serialization.codecs.RecordCodecBuilder;
 import java.util.*;
 import lol.sylvie.sswaystones.Waystones;
+import lol.sylvie.sswaystones.gui.ViewerSnapshot;
 import lol.sylvie.sswaystones.integration.SquaremapIntegration;
+import lol.sylvie.sswaystones.teleport.LandingCache;
+import lol.sylvie.sswaystones.util.HashUtil;
 import lol.sylvie.sswaystones.util.NameGenerator;
 import me.lucko.fabric.api.permissions.v0.Permissions;
 import net.minecraft.ChatFormatting;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.UUIDUtil;
 import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.item.Item;
 import net.minecraft.world.item.Items;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.saveddata.SavedData;
 import net.minecraft.world.level.saveddata.SavedDataType;
 import net.minecraft.world.level.storage.DimensionDataStorage;
+import org.jetbrains.annotations.Nullable;
 
 public class WaystoneStorage extends SavedData {
+    // Sorted by dimension, then by name, prioritizing server owned waystones
+    public static final Comparator<WaystoneRecord> VIEWER_ORDER = Comparator
+            .comparingInt(WaystoneStorage::getDimensionWeight)
+            .thenComparing(waystone -> !waystone.getAccessSettings().isServerOwned())
+            .thenComparing(WaystoneRecord::getWaystoneName);
+
+    // Adds a waystone to a list already in viewer order, keeping it that way
+    public static void insertInViewerOrder(List<WaystoneRecord> list, WaystoneRecord record) {
+        int index = Collections.binarySearch(list, record, VIEWER_ORDER);
+        list.add(index < 0 ? -index - 1 : index, record);
+    }
+
     public HashMap<String, WaystoneRecord> waystones;
     public HashMap<UUID, PlayerData> players;
+    private WaystoneNameIndex nameIndex; // Built on first search
+    private WaystoneChunkIndex chunkIndex; // Built on first chunk load
+    private String verifyCursor; // Last waystone checked by the verifier, empty between passes
 
     public WaystoneStorage() {
-        this(new HashMap<>(), new HashMap<>());
+        this(new HashMap<>(), new HashMap<>(), "");
     }
 
-    public WaystoneStorage(Map<String, WaystoneRecord> waystones, Map<UUID, PlayerData> players) {
+    public WaystoneStorage(Map<String, WaystoneRecord> waystones, Map<UUID, PlayerData> players,
+            String verifyCursor) {
         this.waystones = new HashMap<>(waystones);
         this.players = new HashMap<>(players);
+        this.verifyCursor = verifyCursor;
     }
 
     public static final Codec<WaystoneStorage> CODEC = RecordCodecBuilder.create(instance -> instance.group(
             Codec.unboundedMap(Codec.STRING, WaystoneRecord.CODEC).fieldOf("waystones")
                     .forGetter(WaystoneStorage::getWaystones),
             Codec.unboundedMap(UUIDUtil.AUTHLIB_CODEC, PlayerData.CODEC).fieldOf("players")
-                    .forGetter(WaystoneStorage::getPlayers))
+                    .forGetter(WaystoneStorage::getPlayers),
+            Codec.STRING.optionalFieldOf("verify_cursor", "").forGetter(WaystoneStorage::getVerifyCursor))
             .apply(instance, WaystoneStorage::new));
 
     private static final SavedDataType<WaystoneStorage> TYPE = new SavedDataType<>(Waystones.MOD_ID,
@@ -54,6 +79,14 @@ public class WaystoneStorage extends SavedData {
         return players;
     }
 
+    public String getVerifyCursor() {
+        return verifyCursor;
+    }
+
+    public void setVerifyCursor(String verifyCursor) {
+        this.verifyCursor = verifyCursor;
+    }
+
     public static WaystoneStorage getServerState(MinecraftServer server) {
         DimensionDataStorage persistentStateManager = Objects.requireNonNull(server.getLevel(Level.OVERWORLD))
                 .getDataStorage();
@@ -77,13 +110,64 @@ public class WaystoneStorage extends SavedData {
 
     public List<WaystoneRecord> getAccessibleWaystones(ServerPlayer player, WaystoneRecord record) {
         // Get all waystones that the player can access
-        // Sorted by dimension, then by name, prioritizing server owned waystones
-        return this.waystones.values().stream().filter(
-                waystone -> waystone.getAccessSettings().canPlayerAccess(waystone, player) && waystone != record)
-                .sorted(java.util.Comparator.comparingInt(WaystoneStorage::getDimensionWeight)
-                        .thenComparing(waystone -> !waystone.getAccessSettings().isServerOwned())
-                        .thenComparing(WaystoneRecord::getWaystoneName))
-                .toList();
+        return this.waystones.values().stream()
+                .filter(waystone -> waystone != record && AccessCache.canAccess(player, waystone))
+                .sorted(VIEWER_ORDER).toList();
+    }
+
+    // Counts of what getAccessibleWaystones would return, without building the list
+    public int getAccessibleCount(ServerPlayer player) {
+        return AccessCache.getAccessibleCount(player);
+    }
+
+    public int getAccessibleCount(ServerPlayer player, ResourceKey<Level> dimension) {
+        return AccessCache.getAccessibleCount(player, dimension);
+    }
+
+    public int getFavoriteCount(ServerPlayer player) {
+        return AccessCache.getFavoriteCount(player);
+    }
+
+    // Toggle a favorite, returns whether the waystone is a favorite now
+    public boolean toggleFavorite(ServerPlayer player, WaystoneRecord record) {
+        PlayerData data = getPlayerState(player);
+        boolean wasFavorite = data.isFavorite(record.getHash());
+        boolean favorite = data.toggleFavorite(record.getHash());
+        if (favorite != wasFavorite)
+            AccessCache.onFavoriteToggled(player, record, favorite);
+
+        return favorite;
+    }
+
+    public List<WaystoneRecord> searchAccessibleWaystones(ServerPlayer player, String query) {
+        if (nameIndex == null)
+            nameIndex = new WaystoneNameIndex(this.waystones.values());
+
+        return nameIndex.search(query, waystone -> AccessCache.canAccess(player, waystone));
+    }
+
+    public List<WaystoneRecord> getWaystonesInChunk(ResourceKey<Level> dimension, ChunkPos pos) {
+        if (chunkIndex == null)
+            chunkIndex = new WaystoneChunkIndex(this.waystones.values());
+
+        return chunkIndex.get(dimension, pos);
+    }
+
+    // Rename a waystone, keeping the search index up to date
+    public void renameWaystone(WaystoneRecord record, String name) {
+        record.setWaystoneName(name);
+        if (nameIndex != null)
+            nameIndex.update(record);
+        ViewerSnapshot.onReordered(record);
+    }
+
+    // Remember a waystone for the player, only their own access has to be updated
+    public void discoverWaystone(ServerPlayer player, WaystoneRecord record) {
+        PlayerData data = getPlayerState(player);
+        if (!data.discoveredWaystones.contains(record.getHash()))
+            data.discoveredWaystones.add(record.getHash());
+
+        AccessCache.onDiscovered(player.getUUID(), record);
     }
 
     // Create a waystone
@@ -110,8 +194,32 @@ public class WaystoneStorage extends SavedData {
                 new WaystoneRecord.AccessSettings(true, false, ""), Items.PLAYER_HEAD);
         String hash = record.getHash();
         this.waystones.put(hash, record);
+        if (nameIndex != null)
+            nameIndex.add(record);
+        if (chunkIndex != null)
+            chunkIndex.add(record);
 
         getPlayerState(player).discoveredWaystones.add(hash);
+        AccessCache.onWaystoneAdded(record);
+
+        return record;
+    }
+
+    // Bring back a waystone whose record was lost, the access settings are kept even if the owner isn't known
+    public WaystoneRecord restoreWaystone(ResourceKey<Level> dimension, BlockPos pos, @Nullable UUID owner,
+            String ownerName, String name, WaystoneRecord.AccessSettings accessSettings, Item icon) {
+        if (this.waystones.containsKey(HashUtil.getHash(pos, dimension)))
+            return null;
+
+        WaystoneRecord record = new WaystoneRecord(owner == null ? new UUID(0, 0) : owner,
+                owner == null ? "Server" : ownerName, name.isEmpty() ? NameGenerator.generateName() : name, pos,
+                dimension, accessSettings, icon);
+        this.waystones.put(record.getHash(), record);
+        if (nameIndex != null)
+            nameIndex.add(record);
+        if (chunkIndex != null)
+            chunkIndex.add(record);
+        AccessCache.onWaystoneAdded(record);
 
         return record;
     }
@@ -130,6 +238,12 @@ public class WaystoneStorage extends SavedData {
         amnesiaWaystone(record);
 
         this.waystones.remove(record.getHash());
+        if (nameIndex != null)
+            nameIndex.remove(record);
+        if (chunkIndex != null)
+            chunkIndex.remove(record);
+        LandingCache.forget(record);
+        AccessCache.onWaystoneRemoved(record);
 
         // Update Squaremap markers
         SquaremapIntegration.onWaystoneRemoved(record);
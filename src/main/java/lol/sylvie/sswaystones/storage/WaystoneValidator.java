@@ -0,0 +1,53 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.storage;
+
+import java.util.*;
+import lol.sylvie.sswaystones.Waystones;
+import lol.sylvie.sswaystones.block.WaystoneBlock;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.chunk.LevelChunk;
+
+/**
+ * Finds waystones whose block is gone as their chunks are loaded. A loaded
+ * chunk's blocks are right there, so checking is cheap, but removing a
+ * waystone touches a lot of state, so orphans are queued and removed on the
+ * next server tick instead of in the middle of loading.
+ */
+public class WaystoneValidator {
+    private static final Set<WaystoneRecord> ORPHANS = new LinkedHashSet<>();
+
+    public static void onChunkLoad(ServerLevel world, LevelChunk chunk) {
+        if (!Waystones.configuration.getInstance().removeInvalidWaystones)
+            return;
+
+        WaystoneStorage storage = WaystoneStorage.getServerState(world.getServer());
+        for (WaystoneRecord record : storage.getWaystonesInChunk(world.dimension(), chunk.getPos())) {
+            if (!(chunk.getBlockState(record.getPos()).getBlock() instanceof WaystoneBlock))
+                ORPHANS.add(record);
+        }
+    }
+
+    public static void onServerTick(MinecraftServer server) {
+        if (ORPHANS.isEmpty())
+            return;
+
+        WaystoneStorage storage = WaystoneStorage.getServerState(server);
+        for (WaystoneRecord record : List.copyOf(ORPHANS)) {
+            // It may have been broken properly or replaced since it was queued
+            if (storage.getWaystone(record.getHash()) == record) {
+                Waystones.LOGGER.info("Removing waystone {} at {}, its block is gone", record.getWaystoneName(),
+                        record.asString());
+                storage.destroyWaystone(record);
+            }
+        }
+        ORPHANS.clear();
+    }
+
+    public static void clear() {
+        ORPHANS.clear();
+    }
+}
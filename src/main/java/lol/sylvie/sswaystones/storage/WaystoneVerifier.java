@@ -0,0 +1,246 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.storage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import lol.sylvie.sswaystones.Waystones;
+import lol.sylvie.sswaystones.block.ModBlocks;
+import lol.sylvie.sswaystones.block.WaystoneBlock;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.LevelChunk;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Walks through every waystone record a few at a time, looking for records
+ * whose block no longer exists. Loaded chunks are checked directly, unloaded
+ * ones can be read from their region file on the IO thread, which only has to
+ * look through the chunk's block entities. Orphans are removed if
+ * {@code remove_invalid_waystones} is on and only reported otherwise.
+ * <p>
+ * Records are visited in hash order, and the last one that is done with is
+ * saved with the waystones, so a pass picks up where it left off after a
+ * restart. Records still waiting on their region read don't count as done.
+ */
+public class WaystoneVerifier {
+    private static final int MAX_PENDING_READS = 16;
+    static final String BLOCK_ENTITY_ID = BuiltInRegistries.BLOCK_ENTITY_TYPE
+            .getKey(ModBlocks.WAYSTONE_BLOCK_ENTITY).toString();
+
+    private static final Queue<Result> RESULTS = new ConcurrentLinkedQueue<>();
+    private static final List<String> ORPHANS = new ArrayList<>();
+
+    private static Deque<String> remaining = null; // Null while no pass is running
+    private static VerifyCursor cursor = null; // Kept after a stop until its reads are in
+    private static int total = 0;
+    private static int checked = 0;
+    private static int unloaded = 0;
+    private static int removed = 0;
+    private static int pendingReads = 0;
+
+    private record Result(WaystoneRecord record, boolean present, VerifyCursor cursor) {
+    }
+
+    public enum State {
+        IDLE, RUNNING, PAUSED
+    }
+
+    // Starts a new pass, or continues the one that was interrupted
+    public static void start(MinecraftServer server) {
+        if (remaining != null)
+            return;
+
+        WaystoneStorage storage = WaystoneStorage.getServerState(server);
+        String start = storage.getVerifyCursor();
+        List<String> hashes = new ArrayList<>(storage.waystones.keySet());
+        hashes.sort(null);
+
+        remaining = new ArrayDeque<>();
+        for (String hash : hashes) {
+            if (hash.compareTo(start) > 0)
+                remaining.add(hash);
+        }
+
+        cursor = new VerifyCursor(start);
+        total = hashes.size();
+        checked = total - remaining.size();
+        unloaded = 0;
+        removed = 0;
+        ORPHANS.clear();
+    }
+
+    // Pauses the pass, it's resumed from the saved cursor by the next start
+    public static void stop() {
+        remaining = null;
+    }
+
+    public static void onServerTick(MinecraftServer server) {
+        // Results can still come in after the pass has stopped
+        Result result;
+        while ((result = RESULTS.poll()) != null) {
+            pendingReads--;
+            result.cursor().done(result.record().getHash());
+
+            // If it loaded in the meantime the chunk itself is more up to date
+            LevelChunk chunk = getLoadedChunk(server, result.record());
+            verify(server, result.record(), chunk != null ? isPresent(chunk, result.record()) : result.present());
+        }
+
+        WaystoneStorage storage = WaystoneStorage.getServerState(server);
+        if (remaining == null) {
+            // A stopped pass still moves on as its last reads come in
+            if (cursor != null) {
+                storage.setVerifyCursor(cursor.get());
+                if (pendingReads == 0)
+                    cursor = null;
+            }
+            return;
+        }
+
+        int budget = Waystones.configuration.getInstance().verifierChecksPerTick;
+        for (int i = 0; i < budget && !remaining.isEmpty(); i++) {
+            if (pendingReads >= MAX_PENDING_READS)
+                break;
+
+            String hash = remaining.poll();
+            checked++;
+
+            WaystoneRecord record = storage.getWaystone(hash);
+            cursor.visit(hash, record != null && check(server, record));
+        }
+
+        if (remaining.isEmpty() && pendingReads == 0) {
+            Waystones.LOGGER.info("Verified {} waystones, {} orphaned, {} removed", total, ORPHANS.size(), removed);
+            storage.setVerifyCursor("");
+            remaining = null;
+            cursor = null;
+        } else {
+            storage.setVerifyCursor(cursor.get());
+        }
+    }
+
+    private static @Nullable LevelChunk getLoadedChunk(MinecraftServer server, WaystoneRecord record) {
+        ServerLevel world = record.getWorld(server);
+        if (world == null)
+            return null;
+
+        ChunkPos pos = new ChunkPos(record.getPos());
+        return world.getChunkSource().getChunkNow(pos.x, pos.z);
+    }
+
+    private static boolean isPresent(LevelChunk chunk, WaystoneRecord record) {
+        return chunk.getBlockState(record.getPos()).getBlock() instanceof WaystoneBlock;
+    }
+
+    // Returns whether the result is still to come from a region read
+    private static boolean check(MinecraftServer server, WaystoneRecord record) {
+        ServerLevel world = record.getWorld(server);
+        if (world == null) {
+            // The dimension may only be gone for now, leave it alone
+            unloaded++;
+            return false;
+        }
+
+        LevelChunk chunk = getLoadedChunk(server, record);
+        if (chunk != null) {
+            verify(server, record, isPresent(chunk, record));
+            return false;
+        }
+
+        if (!Waystones.configuration.getInstance().verifierReadRegions) {
+            unloaded++;
+            return false;
+        }
+
+        // A chunk that was never saved can't have a waystone in it either
+        BlockPos pos = record.getPos();
+        ChunkPos chunkPos = new ChunkPos(pos);
+        VerifyCursor owner = cursor;
+        pendingReads++;
+        world.getChunkSource().chunkMap.read(chunkPos)
+                .thenAccept(tag -> RESULTS
+                        .add(new Result(record, tag.map(data -> hasWaystone(data, pos)).orElse(false), owner)))
+                .exceptionally(throwable -> {
+                    // Don't remove anything over a read error
+                    Waystones.LOGGER.warn("Failed to read chunk {} while verifying waystones", chunkPos, throwable);
+                    RESULTS.add(new Result(record, true, owner));
+                    return null;
+                });
+        return true;
+    }
+
+    // Runs on the IO thread, so it must only look at the tag
+    private static boolean hasWaystone(CompoundTag chunk, BlockPos pos) {
+        ListTag blockEntities = chunk.getListOrEmpty("block_entities");
+        for (int i = 0; i < blockEntities.size(); i++) {
+            CompoundTag blockEntity = blockEntities.getCompoundOrEmpty(i);
+            if (blockEntity.getIntOr("x", 0) == pos.getX() && blockEntity.getIntOr("y", 0) == pos.getY()
+                    && blockEntity.getIntOr("z", 0) == pos.getZ())
+                return BLOCK_ENTITY_ID.equals(blockEntity.getStringOr("id", ""));
+        }
+        return false;
+    }
+
+    private static void verify(MinecraftServer server, WaystoneRecord record, boolean present) {
+        WaystoneStorage storage = WaystoneStorage.getServerState(server);
+        if (present || storage.getWaystone(record.getHash()) != record)
+            return;
+
+        ORPHANS.add(record.getHash());
+        if (Waystones.configuration.getInstance().removeInvalidWaystones) {
+            Waystones.LOGGER.info("Removing waystone {} at {}, its block is gone", record.getWaystoneName(),
+                    record.asString());
+            storage.destroyWaystone(record);
+            removed++;
+        } else {
+            Waystones.LOGGER.warn("Waystone {} at {} has no block", record.getWaystoneName(), record.asString());
+        }
+    }
+
+    public static State getState(MinecraftServer server) {
+        if (remaining != null)
+            return State.RUNNING;
+
+        return WaystoneStorage.getServerState(server).getVerifyCursor().isEmpty() ? State.IDLE : State.PAUSED;
+    }
+
+    public static int getTotal() {
+        return total;
+    }
+
+    public static int getChecked() {
+        return checked;
+    }
+
+    public static int getUnloaded() {
+        return unloaded;
+    }
+
+    public static int getRemoved() {
+        return removed;
+    }
+
+    public static int getPendingReads() {
+        return pendingReads;
+    }
+
+    public static List<String> getOrphans() {
+        return ORPHANS;
+    }
+
+    public static void clear() {
+        RESULTS.clear();
+        ORPHANS.clear();
+        remaining = null;
+        cursor = null;
+        pendingReads = 0;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.teleport;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.*;
+import lol.sylvie.sswaystones.storage.WaystoneRecord;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.Vec3i;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+
+/**
+ * Remembers where players land when teleporting to each waystone. A landing
+ * spot stays valid until a block within one block of the waystone changes,
+ * which is noticed through the chunk sections around it.
+ */
+public class LandingCache {
+    public static final int GROUP_RADIUS = 2;
+    private static final List<Vec3i> POSITION_CHECKS = List.of(new Vec3i(-1, -1, 0), new Vec3i(1, -1, 0),
+            new Vec3i(0, -1, -1), new Vec3i(0, -1, 1), new Vec3i(-1, -1, -1), new Vec3i(1, -1, 1),
+            new Vec3i(1, -1, -1), new Vec3i(-1, -1, 1));
+
+    private static final Map<WaystoneRecord, Landing> LANDINGS = new IdentityHashMap<>();
+    private static final Map<ResourceKey<Level>, Long2ObjectMap<List<Landing>>> SECTIONS = new HashMap<>();
+
+    private record Landing(WaystoneRecord record, ResourceKey<Level> dimension, BlockPos pos, boolean repaired) {
+    }
+
+    // Whether a block changing can affect the landing next to a waystone
+    static boolean covers(BlockPos waystone, BlockPos changed) {
+        return Math.abs(changed.getX() - waystone.getX()) <= 1 && Math.abs(changed.getZ() - waystone.getZ()) <= 1
+                && changed.getY() >= waystone.getY() - 1 && changed.getY() <= waystone.getY() + 1;
+    }
+
+    // Whether a repaired landing is needed but the area hasn't been repaired since it last changed
+    public static boolean needsRepair(ServerLevel world, WaystoneRecord record) {
+        Landing landing = LANDINGS.get(record);
+        return landing == null || landing.dimension() != world.dimension() || !landing.repaired();
+    }
+
+    /**
+     * Makes the area around the waystone safe to land in. Comes before
+     * {@link #getLanding}, the changes it makes would invalidate the landing
+     * otherwise.
+     */
+    public static void repair(ServerLevel world, WaystoneRecord record) {
+        forget(record);
+        repair(world, record.getPos());
+    }
+
+    /**
+     * Returns where to land at the waystone. With {@code repaired} on, a landing
+     * found without repairing first isn't used, the caller has to
+     * {@link #repair} the area whenever {@link #needsRepair} says so.
+     */
+    public static BlockPos getLanding(ServerLevel world, WaystoneRecord record, boolean repaired) {
+        Landing landing = LANDINGS.get(record);
+        if (landing != null && landing.dimension() == world.dimension() && (landing.repaired() || !repaired))
+            return landing.pos();
+
+        if (landing != null)
+            forget(record);
+
+        landing = new Landing(record, world.dimension(), findLanding(world, record.getPos()), repaired);
+        LANDINGS.put(record, landing);
+        for (long section : getSections(record.getPos())) {
+            SECTIONS.computeIfAbsent(world.dimension(), key -> new Long2ObjectOpenHashMap<>())
+                    .computeIfAbsent(section, key -> new ArrayList<>()).add(landing);
+        }
+
+        return landing.pos();
+    }
+
+    /**
+     * Finds distinct landing spots for a group, starting with the usual one and
+     * moving outwards up to {@link #GROUP_RADIUS} blocks. Spots are shared once
+     * there are more players than room.
+     */
+    public static List<BlockPos> getGroupLandings(ServerLevel world, WaystoneRecord record, boolean repaired,
+            int count) {
+        List<BlockPos> landings = new ArrayList<>();
+        landings.add(getLanding(world, record, repaired));
+
+        BlockPos pos = record.getPos();
+        for (int radius = 1; radius <= GROUP_RADIUS && landings.size() < count; radius++) {
+            for (int x = -radius; x <= radius && landings.size() < count; x++) {
+                for (int z = -radius; z <= radius && landings.size() < count; z++) {
+                    if (Math.max(Math.abs(x), Math.abs(z)) != radius)
+                        continue;
+
+                    // Allow the ground to be a block higher or lower than the waystone's
+                    for (int y = -1; y <= 1; y++) {
+                        BlockPos feet = pos.offset(x, y, z);
+                        if (!landings.contains(feet) && isSafe(world, feet)) {
+                            landings.add(feet);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        int found = landings.size();
+        for (int i = found; i < count; i++) {
+            landings.add(landings.get(i % found));
+        }
+        return landings;
+    }
+
+    private static boolean isSafe(ServerLevel world, BlockPos feet) {
+        BlockPos ground = feet.below();
+        BlockPos head = feet.above();
+        return !world.getBlockState(ground).getCollisionShape(world, ground).isEmpty()
+                && world.getBlockState(feet).getCollisionShape(world, feet).isEmpty()
+                && world.getBlockState(head).getCollisionShape(world, head).isEmpty();
+    }
+
+    private static void repair(ServerLevel world, BlockPos pos) {
+        // Remove any blocks trying to suffocate the player
+        BlockPos head = pos.above();
+        BlockState headState = world.getBlockState(head);
+        if (!headState.getCollisionShape(world, head).isEmpty() && headState.getDestroySpeed(world, head) != -1)
+            world.destroyBlock(head, true);
+
+        // Make sure there is a platform beneath the waystone, placed all at once
+        // without updating the neighbours
+        List<BlockPos> missing = new ArrayList<>();
+        for (int x = -1; x <= 1; x++) {
+            for (int z = -1; z <= 1; z++) {
+                BlockPos ground = pos.offset(x, -1, z);
+                if (world.getBlockState(ground).isAir())
+                    missing.add(ground);
+            }
+        }
+
+        BlockState cobblestone = Blocks.COBBLESTONE.defaultBlockState();
+        for (BlockPos ground : missing) {
+            world.setBlock(ground, cobblestone, Block.UPDATE_CLIENTS | Block.UPDATE_KNOWN_SHAPE);
+        }
+    }
+
+    // Search for a suitable teleport location, the waystone itself if there is none
+    private static BlockPos findLanding(ServerLevel world, BlockPos pos) {
+        for (Vec3i checkPos : POSITION_CHECKS) {
+            BlockPos feet = pos.offset(checkPos).above();
+            if (isSafe(world, feet))
+                return feet;
+        }
+
+        return pos;
+    }
+
+    // Every section a covered block can be in
+    static Set<Long> getSections(BlockPos pos) {
+        Set<Long> sections = new HashSet<>();
+        for (int x = -1; x <= 1; x += 2) {
+            for (int y = -1; y <= 1; y += 2) {
+                for (int z = -1; z <= 1; z += 2) {
+                    sections.add(SectionPos.asLong(pos.offset(x, y, z)));
+                }
+            }
+        }
+        return sections;
+    }
+
+    // Events
+    public static void onBlockChanged(Level level, BlockPos pos) {
+        if (SECTIONS.isEmpty())
+            return;
+
+        Long2ObjectMap<List<Landing>> sections = SECTIONS.get(level.dimension());
+        if (sections == null)
+            return;
+
+        List<Landing> landings = sections.get(SectionPos.asLong(pos));
+        if (landings == null)
+            return;
+
+        for (Landing landing : List.copyOf(landings)) {
+            if (covers(landing.record().getPos(), pos))
+                forget(landing.record());
+        }
+    }
+
+    public static void forget(WaystoneRecord record) {
+        Landing landing = LANDINGS.remove(record);
+        if (landing == null)
+            return;
+
+        Long2ObjectMap<List<Landing>> sections = SECTIONS.get(landing.dimension());
+        for (long section : getSections(record.getPos())) {
+            List<Landing> landings = sections.get(section);
+            landings.remove(landing);
+            if (landings.isEmpty())
+                sections.remove(section);
+        }
+
+        if (sections.isEmpty())
+            SECTIONS.remove(landing.dimension());
+    }
+
+    public static void clear() {
+        LANDINGS.clear();
+        SECTIONS.clear();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.teleport;
+
+import java.util.*;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.Leashable;
+
+/**
+ * Keeps track of what every holder has on a leash, mobs and boats alike, so
+ * finding what a player is holding is a single lookup. Entries are moved as
+ * leashes are attached, handed over to another holder or dropped. Unloaded
+ * entities fall out on their own, the holder is still checked on lookup in
+ * case a leash went away some other way.
+ */
+public class LeashTracker {
+    private static final Map<Entity, Set<Entity>> BY_HOLDER = new WeakHashMap<>();
+    private static final Map<Entity, Entity> HOLDERS = new WeakHashMap<>();
+
+    public static void onLeashed(Entity leashed, Entity holder) {
+        Entity previous = HOLDERS.put(leashed, holder);
+        if (previous == holder)
+            return;
+
+        if (previous != null)
+            detach(previous, leashed);
+        BY_HOLDER.computeIfAbsent(holder, key -> Collections.newSetFromMap(new WeakHashMap<>())).add(leashed);
+    }
+
+    public static void onUnleashed(Entity leashed) {
+        Entity previous = HOLDERS.remove(leashed);
+        if (previous != null)
+            detach(previous, leashed);
+    }
+
+    private static void detach(Entity holder, Entity leashed) {
+        Set<Entity> held = BY_HOLDER.get(holder);
+        if (held == null)
+            return;
+
+        held.remove(leashed);
+        if (held.isEmpty())
+            BY_HOLDER.remove(holder);
+    }
+
+    public static List<Entity> getLeashedTo(Entity holder) {
+        Set<Entity> held = BY_HOLDER.get(holder);
+        if (held == null)
+            return List.of();
+
+        List<Entity> leashed = new ArrayList<>(held.size());
+        for (Entity entity : held) {
+            if (!entity.isRemoved() && entity instanceof Leashable leashable && leashable.getLeashHolder() == holder)
+                leashed.add(entity);
+        }
+
+        return leashed;
+    }
+
+    public static void clear() {
+        BY_HOLDER.clear();
+        HOLDERS.clear();
+    }
+}
@@ -0,0 +1,304 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.teleport;
+
+import java.util.*;
+import lol.sylvie.sswaystones.Waystones;
+import lol.sylvie.sswaystones.storage.WaystoneRecord;
+import net.minecraft.ChatFormatting;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.level.TicketType;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.ChunkPos;
+
+/**
+ * Carries out waystone teleports in the order they were requested. Every
+ * teleport goes through the same stages: it is validated, the destination's
+ * chunks are loaded without blocking the main thread, a landing spot is found
+ * and finally everyone is moved. Only so many players are moved per tick, the
+ * rest wait in line and are told their position.
+ */
+public class TeleportScheduler {
+    private static final int TICKET_RADIUS = 2; // Keeps the neighbouring chunks fully loaded too
+    private static final int STATUS_INTERVAL = 20; // Ticks between actionbar updates while waiting
+
+    // Insertion order is the order teleports are served in, groups are keyed by a
+    // random id
+    private static final Map<UUID, Request> QUEUE = new LinkedHashMap<>();
+    // The group request each player is part of, a player is never in two requests
+    private static final Map<UUID, Request> GROUPS = new HashMap<>();
+
+    public enum Stage {
+        VALIDATE, PRELOAD, PLACE, MOVE
+    }
+
+    private static class Request {
+        private final List<ServerPlayer> players;
+        private final List<UUID> members; // Everyone the request started with
+        private final boolean group;
+        private WaystoneRecord record;
+        private Stage stage = Stage.VALIDATE;
+        private ServerLevel world;
+        private ChunkPos ticket;
+        private int deadline;
+        private boolean chunkLoaded; // Whether the destination was loaded when the teleport was requested
+        private TeleportStageEvent preloadEvent;
+        private int lastPosition = -1;
+        private int lastStatusTick = Integer.MIN_VALUE;
+
+        private Request(List<ServerPlayer> players, boolean group, WaystoneRecord record) {
+            this.players = players;
+            this.members = players.stream().map(ServerPlayer::getUUID).toList();
+            this.group = group;
+            this.record = record;
+            this.chunkLoaded = isLoaded(players.getFirst().level().getServer(), record, group);
+        }
+    }
+
+    public static void submit(ServerPlayer player, WaystoneRecord record) {
+        // Going along with a group, that takes precedence
+        Request group = GROUPS.get(player.getUUID());
+        if (group != null && group.players.contains(player))
+            return;
+
+        Request request = QUEUE.get(player.getUUID());
+        if (request == null) {
+            QUEUE.put(player.getUUID(), new Request(new ArrayList<>(List.of(player)), false, record));
+            return;
+        }
+
+        // Picking another waystone keeps the player's place in line
+        release(request);
+        request.record = record;
+        request.stage = Stage.VALIDATE;
+        request.chunkLoaded = isLoaded(player.level().getServer(), record, false);
+    }
+
+    /**
+     * Teleports several players to a waystone together. The destination is
+     * checked and loaded once, everyone gets their own landing spot around the
+     * waystone and they are all moved in the same tick with a single set of
+     * effects. Group teleports are issued by operators through the teleport
+     * command, so like {@code /tp} nobody is charged XP or turned away for not
+     * affording it. Teleports the players had already asked for, alone or with
+     * another group, are dropped.
+     */
+    public static void submitGroup(Collection<ServerPlayer> players, WaystoneRecord record) {
+        if (players.isEmpty())
+            return;
+
+        Request request = new Request(new ArrayList<>(players), true, record);
+        for (ServerPlayer player : request.players) {
+            Request single = QUEUE.remove(player.getUUID());
+            if (single != null)
+                release(single);
+
+            Request previous = GROUPS.put(player.getUUID(), request);
+            if (previous != null)
+                previous.players.remove(player);
+        }
+
+        QUEUE.put(UUID.randomUUID(), request);
+    }
+
+    private static boolean isLoaded(MinecraftServer server, WaystoneRecord record, boolean group) {
+        ServerLevel world = record.getWorld(server);
+        return world != null && isReady(world, record.getPos(), group ? LandingCache.GROUP_RADIUS : 1);
+    }
+
+    // Landing spots are searched around the waystone, which may cross into the
+    // neighbouring chunks
+    public static boolean isReady(ServerLevel world, BlockPos pos, int margin) {
+        for (int x = SectionPos.blockToSectionCoord(pos.getX() - margin); x <= SectionPos
+                .blockToSectionCoord(pos.getX() + margin); x++) {
+            for (int z = SectionPos.blockToSectionCoord(pos.getZ() - margin); z <= SectionPos
+                    .blockToSectionCoord(pos.getZ() + margin); z++) {
+                if (!world.getChunkSource().hasChunk(x, z))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    public static void onServerTick(MinecraftServer server) {
+        if (QUEUE.isEmpty())
+            return;
+
+        int budget = Math.max(Waystones.configuration.getInstance().teleportsPerTick, 1);
+        int moved = 0;
+        int position = 0;
+
+        Iterator<Request> iterator = QUEUE.values().iterator();
+        while (iterator.hasNext()) {
+            Request request = iterator.next();
+            request.players.removeIf(player -> player.isRemoved() || player.hasDisconnected());
+            if (request.players.isEmpty() || !advance(server, request, moved < budget)) {
+                iterator.remove();
+                release(request);
+                forget(request);
+                if (request.stage == Stage.MOVE)
+                    moved += request.players.size();
+                continue;
+            }
+
+            showStatus(server, request, ++position);
+        }
+    }
+
+    // Runs the request as far as it can go this tick, false once it's done with
+    private static boolean advance(MinecraftServer server, Request request, boolean mayMove) {
+        List<ServerPlayer> players = request.players;
+        WaystoneRecord record = request.record;
+        if (request.stage == Stage.VALIDATE) {
+            TeleportStageEvent event = TeleportStageEvent.start("validate");
+            if (!request.group)
+                players.removeIf(player -> !record.validateTeleport(player));
+            event.finish(record, request.chunkLoaded, players.size(), 0);
+            if (players.isEmpty())
+                return false;
+
+            event = TeleportStageEvent.start("world");
+            request.world = record.findTargetWorld(server, players);
+            event.finish(record, request.chunkLoaded, players.size(), 0);
+            if (request.world == null)
+                return false;
+
+            request.stage = Stage.PRELOAD;
+            request.preloadEvent = TeleportStageEvent.start("preload");
+            request.deadline = server.getTickCount()
+                    + Math.max(Waystones.configuration.getInstance().teleportPreloadTimeout, 1);
+        }
+
+        if (request.stage == Stage.PRELOAD) {
+            // Don't load the destination on the main thread, wait for it instead
+            int margin = request.group ? LandingCache.GROUP_RADIUS : 1;
+            if (!isReady(request.world, record.getPos(), margin)) {
+                request.chunkLoaded = false;
+                if (request.ticket == null) {
+                    request.ticket = new ChunkPos(record.getPos());
+                    request.world.getChunkSource().addTicketWithRadius(TicketType.PORTAL, request.ticket,
+                            TICKET_RADIUS);
+                }
+
+                if (server.getTickCount() < request.deadline)
+                    return true;
+
+                request.preloadEvent.finish(record, false, players.size(), 0);
+                for (ServerPlayer player : players) {
+                    player.displayClientMessage(Component.translatable("error.sswaystones.teleport_timeout")
+                            .withStyle(ChatFormatting.RED), true);
+                }
+                return false;
+            }
+
+            // Spans every tick spent waiting
+            request.preloadEvent.finish(record, request.chunkLoaded, players.size(), 0);
+            request.stage = Stage.PLACE;
+        }
+
+        // Only the last two stages are limited, waiting for chunks costs nothing
+        if (!mayMove)
+            return true;
+
+        boolean chunkLoaded = request.chunkLoaded;
+        TeleportStageEvent event = TeleportStageEvent.start("check");
+        boolean valid = record.checkDestination(request.world, players);
+        event.finish(record, chunkLoaded, players.size(), 0);
+        if (!valid)
+            return false;
+
+        event = TeleportStageEvent.start("charge");
+        if (!request.group)
+            players.removeIf(player -> !record.chargeTeleport(player));
+        event.finish(record, chunkLoaded, players.size(), 0);
+        if (players.isEmpty())
+            return false;
+
+        // Only repairs if the area changed since it was last repaired
+        boolean repair = Waystones.configuration.getInstance().safeTeleport;
+        if (repair && LandingCache.needsRepair(request.world, record)) {
+            event = TeleportStageEvent.start("repair");
+            LandingCache.repair(request.world, record);
+            event.finish(record, chunkLoaded, players.size(), 0);
+        }
+
+        // Find where to land, usually remembered from last time
+        event = TeleportStageEvent.start("landing");
+        List<BlockPos> landings = request.group
+                ? LandingCache.getGroupLandings(request.world, record, repair, players.size())
+                : List.of(LandingCache.getLanding(request.world, record, repair));
+        event.finish(record, chunkLoaded, players.size(), 0);
+
+        // Passengers, vehicles and leashed mobs come along
+        event = TeleportStageEvent.start("collect");
+        List<List<Entity>> entities = new ArrayList<>(players.size());
+        int entityCount = 0;
+        for (ServerPlayer player : players) {
+            List<Entity> collected = record.collectAssociatedEntities(player);
+            entities.add(collected);
+            entityCount += collected.size();
+        }
+        event.finish(record, chunkLoaded, players.size(), entityCount);
+
+        request.stage = Stage.MOVE;
+        event = TeleportStageEvent.start("move");
+        for (int i = 0; i < players.size(); i++) {
+            record.moveTeleport(players.get(i), request.world, landings.get(i), entities.get(i));
+        }
+        event.finish(record, chunkLoaded, players.size(), entityCount);
+
+        event = TeleportStageEvent.start("effects");
+        record.playTeleportEffects(request.world, landings.getFirst());
+        event.finish(record, chunkLoaded, players.size(), 0);
+        return false;
+    }
+
+    private static void showStatus(MinecraftServer server, Request request, int position) {
+        int tick = server.getTickCount();
+        if (position == request.lastPosition && tick - request.lastStatusTick < STATUS_INTERVAL)
+            return;
+
+        request.lastPosition = position;
+        request.lastStatusTick = tick;
+        Component message = request.stage == Stage.PRELOAD
+                ? Component.translatable("message.sswaystones.preparing_teleport")
+                : Component.translatable("message.sswaystones.teleport_queued", position);
+        for (ServerPlayer player : request.players) {
+            player.displayClientMessage(message.copy().withStyle(ChatFormatting.GRAY), true);
+        }
+    }
+
+    // For tests, the players of every queued request in order
+    static List<List<ServerPlayer>> getQueuedPlayers() {
+        return QUEUE.values().stream().map(request -> List.copyOf(request.players)).toList();
+    }
+
+    public static void clear() {
+        QUEUE.clear();
+        GROUPS.clear();
+    }
+
+    private static void forget(Request request) {
+        if (!request.group)
+            return;
+
+        for (UUID member : request.members) {
+            GROUPS.remove(member, request);
+        }
+    }
+
+    private static void release(Request request) {
+        if (request.ticket == null)
+            return;
+
+        request.world.getChunkSource().removeTicketWithRadius(TicketType.PORTAL, request.ticket, TICKET_RADIUS);
+        request.ticket = null;
+    }
+}
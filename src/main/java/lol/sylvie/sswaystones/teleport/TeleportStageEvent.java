@@ -0,0 +1,71 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.teleport;
+
+import jdk.jfr.*;
+import lol.sylvie.sswaystones.storage.WaystoneRecord;
+
+/**
+ * Flight Recorder event for one stage of a teleport, e.g. finding the landing
+ * spot or moving the players. Recorded with any normal JFR session, the
+ * events only cost anything while a recording has them enabled, otherwise
+ * every stage shares one event that is never committed.
+ */
+@Name("sswaystones.TeleportStage")
+@Label("Waystone Teleport Stage")
+@Category({"Server-Side Waystones", "Teleport"})
+@Description("A single stage of a waystone teleport")
+@StackTrace(false)
+public class TeleportStageEvent extends Event {
+    @Label("Stage")
+    public String stage;
+
+    @Label("Waystone")
+    public String waystone;
+
+    @Label("Dimension")
+    public String dimension;
+
+    @Label("Chunk Was Loaded")
+    @Description("Whether the destination was already loaded when the teleport was requested")
+    public boolean chunkLoaded;
+
+    @Label("Players")
+    public int players;
+
+    @Label("Entities")
+    @Description("Players, vehicles, passengers and leashed mobs moved")
+    public int entities;
+
+    private static final EventType TYPE = EventType.getEventType(TeleportStageEvent.class);
+    private static final TeleportStageEvent DISABLED = new TeleportStageEvent();
+
+    public static TeleportStageEvent start(String stage) {
+        if (!TYPE.isEnabled())
+            return DISABLED;
+
+        TeleportStageEvent event = new TeleportStageEvent();
+        event.stage = stage;
+        event.begin();
+        return event;
+    }
+
+    public void finish(WaystoneRecord record, boolean chunkLoaded, int players, int entities) {
+        // Recording may have started since, but this stage wasn't timed
+        if (this == DISABLED)
+            return;
+
+        end();
+        if (!shouldCommit())
+            return;
+
+        this.waystone = record.getHash();
+        this.dimension = record.getWorldKey().identifier().toString();
+        this.chunkLoaded = chunkLoaded;
+        this.players = players;
+        this.entities = entities;
+        commit();
+    }
+}
@@ -0,0 +1,34 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.util;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only view of one list followed by another. Changes to either list show
+ * up in the view, nothing is ever copied.
+ */
+public class ConcatList<T> extends AbstractList<T> implements RandomAccess {
+    private final List<T> first;
+    private final List<T> second;
+
+    public ConcatList(List<T> first, List<T> second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public T get(int index) {
+        int firstSize = first.size();
+        return index < firstSize ? first.get(index) : second.get(index - firstSize);
+    }
+
+    @Override
+    public int size() {
+        return first.size() + second.size();
+    }
+}
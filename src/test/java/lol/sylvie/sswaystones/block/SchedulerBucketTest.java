@@ -0,0 +1,135 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.block;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class SchedulerBucketTest {
+    private static class Slotted implements SchedulerBucket.Entry {
+        private final String name;
+        private int slot = -1;
+
+        private Slotted(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public int getSchedulerSlot() {
+            return slot;
+        }
+
+        @Override
+        public void setSchedulerSlot(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static List<Slotted> fill(SchedulerBucket<Slotted> bucket, String... names) {
+        List<Slotted> entries = new ArrayList<>();
+        for (String name : names) {
+            Slotted entry = new Slotted(name);
+            bucket.add(entry);
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static List<Slotted> drain(SchedulerBucket<Slotted> bucket) {
+        List<Slotted> visited = new ArrayList<>();
+        Slotted entry;
+        while ((entry = bucket.next()) != null) {
+            visited.add(entry);
+        }
+        return visited;
+    }
+
+    private static void assertSlots(SchedulerBucket<Slotted> bucket) {
+        List<Slotted> entries = bucket.getEntries();
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(i, entries.get(i).getSchedulerSlot(), entries.get(i).toString());
+        }
+    }
+
+    @Test
+    public void addsEntriesOnce() {
+        SchedulerBucket<Slotted> bucket = new SchedulerBucket<>();
+        List<Slotted> entries = fill(bucket, "a", "b");
+
+        bucket.add(entries.getFirst());
+        assertEquals(entries, bucket.getEntries());
+        assertSlots(bucket);
+    }
+
+    @Test
+    public void fillsGapsWithTheLastEntry() {
+        SchedulerBucket<Slotted> bucket = new SchedulerBucket<>();
+        List<Slotted> entries = fill(bucket, "a", "b", "c", "d");
+
+        bucket.remove(entries.get(1));
+        assertEquals(List.of(entries.get(0), entries.get(3), entries.get(2)), bucket.getEntries());
+        assertEquals(-1, entries.get(1).getSchedulerSlot());
+        assertSlots(bucket);
+
+        // Removing twice, or something that was never added, does nothing
+        bucket.remove(entries.get(1));
+        bucket.remove(new Slotted("e"));
+        assertEquals(3, bucket.size());
+    }
+
+    @Test
+    public void keepsVisitedEntriesInFrontOfTheCursor() {
+        SchedulerBucket<Slotted> bucket = new SchedulerBucket<>();
+        List<Slotted> entries = fill(bucket, "a", "b", "c", "d", "e");
+        assertEquals(entries.get(0), bucket.next());
+        assertEquals(entries.get(1), bucket.next());
+        assertEquals(entries.get(2), bucket.next());
+
+        // Nothing is skipped or visited twice this round
+        bucket.remove(entries.get(0));
+        assertSlots(bucket);
+        assertEquals(List.of(entries.get(4), entries.get(3)), drain(bucket));
+        assertTrue(bucket.isFinished());
+    }
+
+    @Test
+    public void removesTheEntryJustVisited() {
+        SchedulerBucket<Slotted> bucket = new SchedulerBucket<>();
+        List<Slotted> entries = fill(bucket, "a", "b", "c");
+
+        bucket.remove(bucket.next());
+        assertSlots(bucket);
+        assertEquals(List.of(entries.get(2), entries.get(1)), drain(bucket));
+    }
+
+    @Test
+    public void startsOverAfterARound() {
+        SchedulerBucket<Slotted> bucket = new SchedulerBucket<>();
+        List<Slotted> entries = fill(bucket, "a", "b");
+        drain(bucket);
+
+        bucket.restart();
+        assertFalse(bucket.isFinished());
+        assertEquals(entries, drain(bucket));
+    }
+
+    @Test
+    public void clearingUnschedulesEverything() {
+        SchedulerBucket<Slotted> bucket = new SchedulerBucket<>();
+        List<Slotted> entries = fill(bucket, "a", "b");
+
+        bucket.clear();
+        assertEquals(0, bucket.size());
+        assertTrue(entries.stream().allMatch(entry -> entry.getSchedulerSlot() == -1));
+    }
+}
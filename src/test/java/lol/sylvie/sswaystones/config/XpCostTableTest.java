@@ -0,0 +1,80 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.config;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.Identifier;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import org.junit.jupiter.api.Test;
+
+public class XpCostTableTest {
+    private static final ResourceKey<Level> MINING = ResourceKey.create(Registries.DIMENSION,
+            Identifier.fromNamespaceAndPath("example", "mining"));
+
+    private static void compile(String overrides) {
+        Configuration.Instance config = new Configuration.Instance();
+        config.xpCost = 1;
+        config.crossDimensionXpCost = 3;
+        config.xpCostOverrides = overrides;
+        XpCostTable.compile(config);
+    }
+
+    @Test
+    public void usesTheBaseCostsWithoutOverrides() {
+        compile("");
+
+        assertEquals(1, XpCostTable.getCost(Level.OVERWORLD, Level.OVERWORLD));
+        assertEquals(3, XpCostTable.getCost(Level.OVERWORLD, Level.NETHER));
+        assertEquals(1, XpCostTable.getCost(MINING, MINING));
+        assertEquals(3, XpCostTable.getCost(MINING, Level.END));
+    }
+
+    @Test
+    public void appliesTargetOverridesFromEverywhere() {
+        compile("minecraft:the_nether=5");
+
+        assertEquals(5, XpCostTable.getCost(Level.OVERWORLD, Level.NETHER));
+        assertEquals(5, XpCostTable.getCost(Level.END, Level.NETHER));
+        assertEquals(5, XpCostTable.getCost(Level.NETHER, Level.NETHER));
+        assertEquals(3, XpCostTable.getCost(Level.NETHER, Level.OVERWORLD));
+    }
+
+    @Test
+    public void appliesPairOverridesOverTargetOverrides() {
+        compile("minecraft:the_end=4, minecraft:overworld>minecraft:the_end=9");
+
+        assertEquals(9, XpCostTable.getCost(Level.OVERWORLD, Level.END));
+        assertEquals(4, XpCostTable.getCost(Level.NETHER, Level.END));
+        assertEquals(3, XpCostTable.getCost(Level.END, Level.OVERWORLD));
+    }
+
+    @Test
+    public void acceptsModdedDimensions() {
+        compile("example:mining=0,example:mining>minecraft:overworld=2");
+
+        assertEquals(0, XpCostTable.getCost(Level.OVERWORLD, MINING));
+        assertEquals(0, XpCostTable.getCost(MINING, MINING));
+        assertEquals(2, XpCostTable.getCost(MINING, Level.OVERWORLD));
+        assertEquals(3, XpCostTable.getCost(MINING, Level.NETHER));
+    }
+
+    @Test
+    public void skipsInvalidEntries() {
+        compile("no cost, minecraft:the_end=lots, a>b>c=1, Not A Dimension=2,, minecraft:the_nether = 6");
+
+        assertEquals(3, XpCostTable.getCost(Level.OVERWORLD, Level.END));
+        assertEquals(6, XpCostTable.getCost(Level.OVERWORLD, Level.NETHER));
+    }
+
+    @Test
+    public void toleratesMissingOverrides() {
+        compile(null);
+
+        assertEquals(3, XpCostTable.getCost(Level.OVERWORLD, Level.END));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.gui;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.UUID;
+import lol.sylvie.sswaystones.storage.AccessCache;
+import lol.sylvie.sswaystones.storage.WaystoneRecord;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.item.Items;
+import net.minecraft.world.level.Level;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ViewerSnapshotTest {
+    private static final UUID PLAYER = new UUID(0, 1);
+    private static int nextX = 0;
+
+    @BeforeAll
+    public static void bootstrap() {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+
+    @BeforeEach
+    public void reset() {
+        ViewerSnapshot.clear();
+        AccessCache.clear();
+    }
+
+    private static WaystoneRecord waystone(String name, ResourceKey<Level> dimension) {
+        return new WaystoneRecord(new UUID(0, 0), "Server", name, new BlockPos(nextX++, 64, 0), dimension,
+                new WaystoneRecord.AccessSettings(true, false, ""), Items.PLAYER_HEAD);
+    }
+
+    private static WaystoneRecord waystone(String name) {
+        return waystone(name, Level.OVERWORLD);
+    }
+
+    @Test
+    public void patchesSnapshotsAtThePreviousStamp() {
+        WaystoneRecord a = waystone("a");
+        WaystoneRecord b = waystone("b");
+        WaystoneRecord c = waystone("c");
+        ViewerSnapshot.put(PLAYER, new ViewerSnapshot(1, List.of(), List.of(a, c)));
+
+        ViewerSnapshot.onAccessChanged(PLAYER, 1, 2, b, true, false);
+        assertEquals(new ViewerSnapshot(2, List.of(), List.of(a, b, c)), ViewerSnapshot.find(PLAYER));
+
+        ViewerSnapshot.onAccessChanged(PLAYER, 2, 3, a, false, false);
+        assertEquals(new ViewerSnapshot(3, List.of(), List.of(b, c)), ViewerSnapshot.find(PLAYER));
+    }
+
+    @Test
+    public void insertsFavoritesIntoTheirOwnList() {
+        WaystoneRecord a = waystone("a");
+        WaystoneRecord b = waystone("b");
+        ViewerSnapshot.put(PLAYER, new ViewerSnapshot(1, List.of(), List.of(a)));
+
+        ViewerSnapshot.onAccessChanged(PLAYER, 1, 2, b, true, true);
+        assertEquals(new ViewerSnapshot(2, List.of(b), List.of(a)), ViewerSnapshot.find(PLAYER));
+
+        ViewerSnapshot.onAccessChanged(PLAYER, 2, 3, b, false, true);
+        assertEquals(new ViewerSnapshot(3, List.of(), List.of(a)), ViewerSnapshot.find(PLAYER));
+    }
+
+    @Test
+    public void leavesStaleSnapshotsToBeRebuilt() {
+        WaystoneRecord a = waystone("a");
+        ViewerSnapshot snapshot = new ViewerSnapshot(1, List.of(), List.of());
+        ViewerSnapshot.put(PLAYER, snapshot);
+
+        ViewerSnapshot.onAccessChanged(PLAYER, 4, 5, a, true, false);
+        assertSame(snapshot, ViewerSnapshot.find(PLAYER));
+    }
+
+    @Test
+    public void keepsViewerOrderWhenRenamed() {
+        WaystoneRecord a = waystone("a");
+        WaystoneRecord b = waystone("b");
+        WaystoneRecord c = waystone("c");
+        ViewerSnapshot.put(PLAYER, new ViewerSnapshot(1, List.of(), List.of(a, b, c)));
+
+        a.setWaystoneName("d");
+        ViewerSnapshot.onReordered(a);
+        assertEquals(List.of(b, c, a), ViewerSnapshot.find(PLAYER).nonFavorites());
+    }
+
+    @Test
+    public void keepsViewerOrderWhenServerOwnershipChanges() {
+        WaystoneRecord a = waystone("a");
+        WaystoneRecord b = waystone("b");
+        WaystoneRecord c = waystone("c");
+        WaystoneRecord nether = waystone("a", Level.NETHER);
+        ViewerSnapshot.put(PLAYER, new ViewerSnapshot(1, List.of(), List.of(a, b, c, nether)));
+
+        // Server owned waystones come first, but only within their dimension
+        c.getAccessSettings().setServerOwned(true);
+        nether.getAccessSettings().setServerOwned(true);
+        assertEquals(List.of(c, a, b, nether), ViewerSnapshot.find(PLAYER).nonFavorites());
+
+        // Inserting relies on the list still being sorted
+        WaystoneRecord d = waystone("d");
+        ViewerSnapshot.onAccessChanged(PLAYER, 1, 2, d, true, false);
+        assertEquals(List.of(c, a, b, d, nether), ViewerSnapshot.find(PLAYER).nonFavorites());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.storage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.UUID;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.item.Items;
+import net.minecraft.world.level.Level;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AccessCacheTest {
+    private static final UUID PLAYER = new UUID(0, 1);
+    private static int nextX = 0;
+
+    @BeforeAll
+    public static void bootstrap() {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+
+    @BeforeEach
+    public void reset() {
+        AccessCache.clear();
+    }
+
+    private static WaystoneRecord waystone(boolean global, String team, ResourceKey<Level> dimension) {
+        return new WaystoneRecord(new UUID(0, 0), "Server", "Waystone", new BlockPos(nextX++, 64, 0), dimension,
+                new WaystoneRecord.AccessSettings(global, false, team), Items.PLAYER_HEAD);
+    }
+
+    private static WaystoneRecord waystone(boolean global, String team) {
+        return waystone(global, team, Level.OVERWORLD);
+    }
+
+    @Test
+    public void countsWhatThePlayerCanAccess() {
+        WaystoneRecord global = waystone(true, "");
+        WaystoneRecord team = waystone(false, "red", Level.NETHER);
+        WaystoneRecord discovered = waystone(false, "");
+        WaystoneRecord hidden = waystone(false, "blue");
+        PlayerData data = new PlayerData(List.of(discovered.getHash()), List.of(team.getHash(), hidden.getHash()));
+
+        AccessCache.Entry entry = AccessCache.track(PLAYER, "red", false, data,
+                List.of(global, team, discovered, hidden));
+        assertEquals(3, entry.accessible.size());
+        assertEquals(2, entry.dimensionCounts.getInt(Level.OVERWORLD));
+        assertEquals(1, entry.dimensionCounts.getInt(Level.NETHER));
+        assertEquals(1, entry.favoriteCount);
+    }
+
+    @Test
+    public void updatesCountsWhenAccessSettingsChange() {
+        WaystoneRecord favorite = waystone(false, "red");
+        WaystoneRecord other = waystone(false, "");
+        PlayerData data = new PlayerData(List.of(), List.of(favorite.getHash()));
+        AccessCache.Entry entry = AccessCache.track(PLAYER, "red", false, data, List.of(favorite, other));
+        int stamp = entry.stamp;
+        int revision = AccessCache.getRevision();
+
+        other.getAccessSettings().setGlobal(true);
+        assertEquals(2, entry.accessible.size());
+        assertEquals(2, entry.dimensionCounts.getInt(Level.OVERWORLD));
+        assertTrue(entry.stamp > stamp);
+        assertTrue(AccessCache.getRevision() > revision);
+
+        favorite.getAccessSettings().setTeam("blue");
+        assertEquals(1, entry.accessible.size());
+        assertEquals(1, entry.dimensionCounts.getInt(Level.OVERWORLD));
+        assertEquals(0, entry.favoriteCount);
+    }
+
+    @Test
+    public void keepsTheStampIfAccessDidNotChange() {
+        WaystoneRecord waystone = waystone(true, "");
+        AccessCache.Entry entry = AccessCache.track(PLAYER, "", false, new PlayerData(), List.of(waystone));
+        int stamp = entry.stamp;
+
+        // Still accessible either way
+        waystone.getAccessSettings().setTeam("red");
+        assertEquals(stamp, entry.stamp);
+        assertEquals(1, entry.accessible.size());
+    }
+
+    @Test
+    public void updatesCountsWhenWaystonesComeAndGo() {
+        WaystoneRecord waystone = waystone(true, "");
+        AccessCache.Entry entry = AccessCache.track(PLAYER, "", false, new PlayerData(), List.of());
+
+        AccessCache.onWaystoneAdded(waystone);
+        assertEquals(1, entry.accessible.size());
+        assertEquals(1, entry.dimensionCounts.getInt(Level.OVERWORLD));
+
+        int stamp = entry.stamp;
+        AccessCache.onWaystoneRemoved(waystone);
+        assertEquals(0, entry.accessible.size());
+        assertEquals(0, entry.dimensionCounts.getInt(Level.OVERWORLD));
+        assertTrue(entry.stamp > stamp);
+    }
+
+    @Test
+    public void onlyBumpsTheRevisionForNewDiscoveries() {
+        WaystoneRecord waystone = waystone(false, "");
+        AccessCache.Entry entry = AccessCache.track(PLAYER, "", false, new PlayerData(), List.of(waystone));
+
+        int revision = AccessCache.getRevision();
+        AccessCache.onDiscovered(PLAYER, waystone);
+        assertEquals(1, entry.accessible.size());
+        assertEquals(revision + 1, AccessCache.getRevision());
+
+        AccessCache.onDiscovered(PLAYER, waystone);
+        assertEquals(revision + 1, AccessCache.getRevision());
+    }
+
+    @Test
+    public void invalidatingDropsTheEntry() {
+        AccessCache.track(PLAYER, "", false, new PlayerData(), List.of());
+        int revision = AccessCache.getRevision();
+
+        AccessCache.invalidate(PLAYER);
+        assertNull(AccessCache.find(PLAYER));
+        assertTrue(AccessCache.getRevision() > revision);
+    }
+
+    @Test
+    public void invalidatingEveryoneOutdatesTheGeneration() {
+        AccessCache.Entry entry = AccessCache.track(PLAYER, "", false, new PlayerData(), List.of());
+        AccessCache.invalidate();
+
+        AccessCache.Entry current = AccessCache.track(PLAYER, "", false, new PlayerData(), List.of());
+        assertNotEquals(entry.generation, current.generation);
+    }
+}
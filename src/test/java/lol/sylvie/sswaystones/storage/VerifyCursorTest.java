@@ -0,0 +1,64 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.storage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class VerifyCursorTest {
+    @Test
+    public void startsWhereTheLastPassStopped() {
+        assertEquals("b", new VerifyCursor("b").get());
+    }
+
+    @Test
+    public void followsVisitsWithNothingPending() {
+        VerifyCursor cursor = new VerifyCursor("");
+        cursor.visit("a", false);
+        cursor.visit("b", false);
+
+        assertEquals("b", cursor.get());
+    }
+
+    @Test
+    public void staysBeforeTheLowestPendingHash() {
+        VerifyCursor cursor = new VerifyCursor("");
+        cursor.visit("a", false);
+        cursor.visit("b", true);
+        cursor.visit("c", false);
+        cursor.visit("d", true);
+        cursor.visit("e", false);
+        assertEquals("a", cursor.get());
+
+        cursor.done("b");
+        assertEquals("c", cursor.get());
+
+        cursor.done("d");
+        assertEquals("e", cursor.get());
+    }
+
+    @Test
+    public void waitsForEarlierReadsFinishingLate() {
+        VerifyCursor cursor = new VerifyCursor("a");
+        cursor.visit("b", true);
+        cursor.visit("c", true);
+
+        cursor.done("c");
+        assertEquals("a", cursor.get());
+
+        cursor.done("b");
+        assertEquals("c", cursor.get());
+    }
+
+    @Test
+    public void ignoresHashesThatWerentPending() {
+        VerifyCursor cursor = new VerifyCursor("");
+        cursor.visit("a", true);
+        cursor.done("z");
+
+        assertEquals("", cursor.get());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.storage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.UUID;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.item.Items;
+import net.minecraft.world.level.Level;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class WaystoneNameIndexTest {
+    private static int nextX = 0;
+
+    @BeforeAll
+    public static void bootstrap() {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+
+    private static WaystoneRecord waystone(String name) {
+        return new WaystoneRecord(new UUID(0, 0), "Server", name, new BlockPos(nextX++, 64, 0), Level.OVERWORLD,
+                new WaystoneRecord.AccessSettings(true, false, ""), Items.PLAYER_HEAD);
+    }
+
+    @Test
+    public void ranksExactThenPrefixThenSubstring() {
+        WaystoneRecord exact = waystone("Spawn");
+        WaystoneRecord prefix = waystone("Spawn Town");
+        WaystoneRecord substring = waystone("Old Spawn");
+        WaystoneRecord other = waystone("Desert");
+        WaystoneNameIndex index = new WaystoneNameIndex(List.of(substring, other, prefix, exact));
+
+        assertEquals(List.of(exact, prefix, substring), index.search("spawn", waystone -> true));
+    }
+
+    @Test
+    public void ignoresCaseAndSurroundingSpaces() {
+        WaystoneRecord spawn = waystone("Spawn");
+        WaystoneNameIndex index = new WaystoneNameIndex(List.of(spawn));
+
+        assertEquals(List.of(spawn), index.search("  SPAWN ", waystone -> true));
+    }
+
+    @Test
+    public void answersShortQueriesAsPrefixes() {
+        WaystoneRecord spawn = waystone("Spawn");
+        WaystoneRecord swamp = waystone("Big Swamp");
+        WaystoneRecord desert = waystone("Desert");
+        WaystoneNameIndex index = new WaystoneNameIndex(List.of(spawn, swamp, desert));
+
+        // Short queries match the start of any word, names starting with them first
+        assertEquals(List.of(spawn, swamp), index.search("s", waystone -> true));
+        assertEquals(List.of(swamp), index.search("sw", waystone -> true));
+    }
+
+    @Test
+    public void findsCloseMisspellings() {
+        WaystoneRecord mountain = waystone("Mountain Base");
+        WaystoneNameIndex index = new WaystoneNameIndex(List.of(mountain, waystone("Ocean")));
+
+        assertEquals(List.of(mountain), index.search("mountian", waystone -> true));
+    }
+
+    @Test
+    public void appliesTheFilter() {
+        WaystoneRecord allowed = waystone("Farm");
+        WaystoneRecord hidden = waystone("Farm Two");
+        WaystoneNameIndex index = new WaystoneNameIndex(List.of(allowed, hidden));
+
+        assertEquals(List.of(allowed), index.search("farm", waystone -> waystone != hidden));
+    }
+
+    @Test
+    public void returnsNothingForEmptyQueries() {
+        WaystoneNameIndex index = new WaystoneNameIndex(List.of(waystone("Spawn")));
+
+        assertTrue(index.search("   ", waystone -> true).isEmpty());
+    }
+
+    @Test
+    public void followsRenamesAndRemovals() {
+        WaystoneRecord record = waystone("Village");
+        WaystoneNameIndex index = new WaystoneNameIndex(List.of(record));
+
+        record.setWaystoneName("Harbor");
+        index.update(record);
+        assertTrue(index.search("village", waystone -> true).isEmpty());
+        assertEquals(List.of(record), index.search("harbor", waystone -> true));
+
+        index.remove(record);
+        assertTrue(index.search("harbor", waystone -> true).isEmpty());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.teleport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Set;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import org.junit.jupiter.api.Test;
+
+public class LandingCacheTest {
+    @Test
+    public void coversTheBlocksAroundTheWaystone() {
+        BlockPos waystone = new BlockPos(10, 64, -10);
+
+        for (int x = -1; x <= 1; x++) {
+            for (int y = -1; y <= 1; y++) {
+                for (int z = -1; z <= 1; z++) {
+                    assertTrue(LandingCache.covers(waystone, waystone.offset(x, y, z)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void ignoresBlocksFurtherAway() {
+        BlockPos waystone = new BlockPos(10, 64, -10);
+
+        assertFalse(LandingCache.covers(waystone, waystone.offset(2, 0, 0)));
+        assertFalse(LandingCache.covers(waystone, waystone.offset(0, 0, -2)));
+        assertFalse(LandingCache.covers(waystone, waystone.offset(0, 2, 0)));
+        assertFalse(LandingCache.covers(waystone, waystone.offset(0, -2, 0)));
+    }
+
+    @Test
+    public void indexesEverySectionACoveredBlockIsIn() {
+        // Corners and edges of sections, where covered blocks spill into the neighbours
+        BlockPos[] waystones = {new BlockPos(0, 0, 0), new BlockPos(15, 15, 15), new BlockPos(-1, 63, 16),
+                new BlockPos(16, -64, -17), new BlockPos(8, 72, 8)};
+
+        for (BlockPos waystone : waystones) {
+            Set<Long> sections = LandingCache.getSections(waystone);
+            for (int x = -1; x <= 1; x++) {
+                for (int y = -1; y <= 1; y++) {
+                    for (int z = -1; z <= 1; z++) {
+                        BlockPos changed = waystone.offset(x, y, z);
+                        assertTrue(sections.contains(SectionPos.asLong(changed)),
+                                () -> changed + " isn't indexed for " + waystone);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void indexesOnlyOneSectionAwayFromTheMiddle() {
+        assertEquals(Set.of(SectionPos.asLong(new BlockPos(8, 72, 8))),
+                LandingCache.getSections(new BlockPos(8, 72, 8)));
+    }
+}
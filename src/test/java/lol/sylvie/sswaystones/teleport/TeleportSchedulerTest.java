@@ -0,0 +1,89 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.teleport;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.UUID;
+import lol.sylvie.sswaystones.storage.WaystoneRecord;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.item.Items;
+import net.minecraft.world.level.Level;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TeleportSchedulerTest {
+    private static int nextX = 0;
+
+    @BeforeAll
+    public static void bootstrap() {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+
+    @BeforeEach
+    public void reset() {
+        TeleportScheduler.clear();
+    }
+
+    private static ServerPlayer player() {
+        ServerPlayer player = mock(ServerPlayer.class, RETURNS_DEEP_STUBS);
+        when(player.getUUID()).thenReturn(UUID.randomUUID());
+        return player;
+    }
+
+    private static WaystoneRecord waystone() {
+        return new WaystoneRecord(new UUID(0, 0), "Server", "Waystone", new BlockPos(nextX++, 64, 0),
+                Level.OVERWORLD, new WaystoneRecord.AccessSettings(true, false, ""), Items.PLAYER_HEAD);
+    }
+
+    @Test
+    public void groupsReplaceSingleRequests() {
+        ServerPlayer a = player();
+        ServerPlayer b = player();
+        TeleportScheduler.submit(a, waystone());
+
+        TeleportScheduler.submitGroup(List.of(a, b), waystone());
+        assertEquals(List.of(List.of(a, b)), TeleportScheduler.getQueuedPlayers());
+    }
+
+    @Test
+    public void groupMembersCantQueueAlone() {
+        ServerPlayer a = player();
+        ServerPlayer b = player();
+        TeleportScheduler.submitGroup(List.of(a, b), waystone());
+
+        TeleportScheduler.submit(a, waystone());
+        assertEquals(List.of(List.of(a, b)), TeleportScheduler.getQueuedPlayers());
+    }
+
+    @Test
+    public void joiningAnotherGroupLeavesTheFirst() {
+        ServerPlayer a = player();
+        ServerPlayer b = player();
+        ServerPlayer c = player();
+        TeleportScheduler.submitGroup(List.of(a, b), waystone());
+
+        TeleportScheduler.submitGroup(List.of(b, c), waystone());
+        assertEquals(List.of(List.of(a), List.of(b, c)), TeleportScheduler.getQueuedPlayers());
+    }
+
+    @Test
+    public void pickingAnotherWaystoneKeepsThePlaceInLine() {
+        ServerPlayer a = player();
+        ServerPlayer b = player();
+        TeleportScheduler.submit(a, waystone());
+        TeleportScheduler.submit(b, waystone());
+
+        TeleportScheduler.submit(a, waystone());
+        assertEquals(List.of(List.of(a), List.of(b)), TeleportScheduler.getQueuedPlayers());
+    }
+}
@@ -0,0 +1,56 @@
+/*
+  This file is licensed under the MIT License!
+  https://github.com/sylvxa/sswaystones/blob/main/LICENSE
+*/
+package lol.sylvie.sswaystones.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ConcatListTest {
+    @Test
+    public void readsTheFirstListThenTheSecond() {
+        List<String> list = new ConcatList<>(List.of("a", "b"), List.of("c"));
+
+        assertEquals(3, list.size());
+        assertEquals("b", list.get(1));
+        assertEquals("c", list.get(2));
+        assertEquals(List.of("a", "b", "c"), list);
+    }
+
+    @Test
+    public void handlesEmptyLists() {
+        assertEquals(List.of("c"), new ConcatList<>(List.of(), List.of("c")));
+        assertEquals(List.of("a"), new ConcatList<>(List.of("a"), List.of()));
+        assertTrue(new ConcatList<>(List.of(), List.of()).isEmpty());
+    }
+
+    @Test
+    public void showsChangesToEitherList() {
+        List<String> first = new ArrayList<>(List.of("a"));
+        List<String> second = new ArrayList<>(List.of("c"));
+        List<String> list = new ConcatList<>(first, second);
+
+        first.add("b");
+        second.removeFirst();
+        assertEquals(List.of("a", "b"), list);
+    }
+
+    @Test
+    public void rejectsIndicesOutOfRange() {
+        List<String> list = new ConcatList<>(List.of("a"), List.of("b"));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(-1));
+    }
+
+    @Test
+    public void isReadOnly() {
+        List<String> list = new ConcatList<>(new ArrayList<>(List.of("a")), new ArrayList<>());
+
+        assertThrows(UnsupportedOperationException.class, () -> list.add("b"));
+    }
+}